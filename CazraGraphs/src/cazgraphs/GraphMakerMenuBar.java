@@ -12,6 +12,7 @@ import cazgraphs.graph.*;
 import cazgraphs.graph.layout.*;
 import cazgraphs.graph.model.DirectedGraph;
 import cazgraphs.graph.style.*;
+import cazgraphs.io.BinaryGraphIO;
 import cazgraphs.io.CazGraphTextIO;
 import cazgraphs.io.GraphIO;
 import cazgraphs.io.dot.DotIO;
@@ -24,6 +25,7 @@ public class GraphMakerMenuBar extends JMenuBar {
   private JFileChooser chooser = null;
     private FileNameExtensionFilter txtFilter = null;
     private FileNameExtensionFilter dotFilter = null;
+    private FileNameExtensionFilter binaryFilter = null;
   
   private JMenu fileMenu = null;
     private JMenuItem newItem = null;
@@ -35,6 +37,7 @@ public class GraphMakerMenuBar extends JMenuBar {
   private JMenu layoutMenu = null;
     private JRadioButtonMenuItem layoutNoneItem = null;
     private JRadioButtonMenuItem layoutForceItem = null;
+    private JRadioButtonMenuItem layoutBarnesHutItem = null;
     private JRadioButtonMenuItem layoutCircleItem = null;
     private JRadioButtonMenuItem layoutBipartiteItem = null;
     
@@ -72,6 +75,9 @@ public class GraphMakerMenuBar extends JMenuBar {
       
       dotFilter = new FileNameExtensionFilter("GraphVis DOT", "dot");
       chooser.addChoosableFileFilter(dotFilter);
+      
+      binaryFilter = new FileNameExtensionFilter("CazGraphs binary", "cgb");
+      chooser.addChoosableFileFilter(binaryFilter);
     }
     return chooser;
   }
@@ -236,6 +242,9 @@ public class GraphMakerMenuBar extends JMenuBar {
       layoutMenu.add(getLayoutForceItem());
       group.add(getLayoutForceItem());
       
+      layoutMenu.add(getLayoutBarnesHutItem());
+      group.add(getLayoutBarnesHutItem());
+      
       layoutMenu.add(getLayoutCircleItem());
       group.add(getLayoutCircleItem());
       
@@ -288,6 +297,36 @@ public class GraphMakerMenuBar extends JMenuBar {
   }
   
   
+  /** 
+   * Sets the graph to use a force-directed layout algorithm whose repulsion 
+   * is approximated with a Barnes-Hut quadtree.
+   */
+  public JRadioButtonMenuItem getLayoutBarnesHutItem() {
+    if(layoutBarnesHutItem == null) {
+      layoutBarnesHutItem = new JRadioButtonMenuItem("Force-directed (Barnes-Hut)");
+      final Component self = this;
+      layoutBarnesHutItem.addActionListener(new ActionListener() {
+        public void actionPerformed(ActionEvent e) {
+          ForceDirectedGraphLayout layout = new ForceDirectedGraphLayout();
+          layout.useBarnesHut = true;
+          GraphMakerMain.instance.graphPanel.graph.setLayout(layout);
+          
+          try {
+            layout.ANTIGRAV *= Double.parseDouble(JOptionPane.showInputDialog("antigravity scale:"));
+            layout.NSPRING *= Double.parseDouble(JOptionPane.showInputDialog("neighbor spring scale:"));
+            layout.THETA = Double.parseDouble(JOptionPane.showInputDialog("Barnes-Hut theta:", "" + layout.THETA));
+          }
+          catch(Exception ex) {
+            JOptionPane.showMessageDialog(self, "Hello, I am ERROR.");
+            ex.printStackTrace();
+          }
+        }
+      });
+    }
+    return layoutBarnesHutItem;
+  }
+  
+  
   /** Sets the graph to use the N-gon layout algorithm. */
   public JRadioButtonMenuItem getLayoutCircleItem() {
     if(layoutCircleItem == null) {
@@ -542,6 +581,9 @@ public class GraphMakerMenuBar extends JMenuBar {
     else if(ext.equals(DotIO.defaultFileExtension())) {
       return DotIO.getInstance();
     }
+    else if(ext.equals(BinaryGraphIO.defaultFileExtension())) {
+      return BinaryGraphIO.getInstance();
+    }
     else {
       throw new CazgraphException("Unsupported file type: " + ext);
     }
@@ -555,6 +597,9 @@ public class GraphMakerMenuBar extends JMenuBar {
     else if(filter == dotFilter) {
       return DotIO.getInstance();
     }
+    else if(filter == binaryFilter) {
+      return BinaryGraphIO.getInstance();
+    }
     else {
       throw new CazgraphException("Unsupported file filter");
     }
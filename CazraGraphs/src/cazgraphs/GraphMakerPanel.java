@@ -268,10 +268,8 @@ public class GraphMakerPanel extends GamePanel {
     // selection rectangle
     if(mouse.justLeftClicked && showingSelectRect) {
       Rectangle2D rect = getSelectRect(mouseWorld);
-      for(VertexSprite sprite : graph.getSprites()) {
-        if(rect.contains(sprite.x, sprite.y)) {
-          graph.selectVertex(sprite);
-        }
+      for(VertexSprite sprite : graph.getVerticesInRect(rect)) {
+        graph.selectVertex(sprite);
       }
       showingSelectRect = false;
     }
@@ -0,0 +1,90 @@
+package cazgraphs.graph;
+
+import java.awt.*;
+import java.awt.geom.*;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cazgraphs.graph.style.EdgeStyle;
+
+/**
+ * Collects runs of consecutive edges that share a style, color, and
+ * thickness into a single Path2D, so that each run is drawn with one Java2D
+ * call instead of one call per line and arrowhead. The run is drawn as soon
+ * as an edge that doesn't match it is added, so edges are still drawn in
+ * the order they're added, and each edge's label is drawn right after it.
+ * Edges whose styles aren't batchable should be drawn directly, after
+ * flushing the batch.
+ */
+public class EdgeBatch {
+
+  /**
+   * The most edges appended to one path. Stroking one huge path costs more
+   * than stroking several smaller ones, so long runs are drawn in pieces of
+   * at most this many edges.
+   */
+  private static final int MAX_EDGES_PER_PATH = 256;
+
+  /** Strokes shared between frames, by thickness. */
+  private static final Map<Integer, BasicStroke> strokes = new ConcurrentHashMap<>();
+
+  /** The path the current run is appended to. It is reused for every run. */
+  private Path2D path = new Path2D.Double();
+
+  /** The number of edges in the current run. */
+  private int count = 0;
+
+  /** The style, color, and thickness shared by the current run. */
+  private EdgeStyle style = null;
+  private Color color = null;
+  private int thickness = 0;
+
+
+  /** Returns a solid stroke of the given thickness, shared with other callers. */
+  public static BasicStroke getStroke(int thickness) {
+    return strokes.computeIfAbsent(thickness, BasicStroke::new);
+  }
+
+
+  /**
+   * Adds the edge from n1 to n2, drawn with a batchable style, to the batch.
+   * The current run is drawn first if the edge doesn't belong to it.
+   */
+  public void add(Graphics2D g, EdgeStyle edgeStyle, VertexSprite n1, VertexSprite n2, Color color, int thickness) {
+    if(count > 0 && (count == MAX_EDGES_PER_PATH || edgeStyle != style || !Objects.equals(color, this.color) || thickness != this.thickness)) {
+      flush(g);
+    }
+
+    this.style = edgeStyle;
+    this.color = color;
+    this.thickness = thickness;
+    edgeStyle.appendEdge(path, n1, n2);
+    count++;
+
+    if(edgeStyle.hasLabel()) {
+      flush(g);
+      g.setColor(color);
+      edgeStyle.drawLabel(g, n1, n2);
+    }
+  }
+
+
+  /** Draws the current run, if there is one, and empties the batch. */
+  public void flush(Graphics2D g) {
+    if(count == 0) {
+      return;
+    }
+
+    Stroke origStroke = g.getStroke();
+    g.setStroke(getStroke(thickness));
+    g.setColor(color);
+    g.draw(path);
+    g.setStroke(origStroke);
+
+    path.reset();
+    count = 0;
+    style = null;
+    color = null;
+  }
+}
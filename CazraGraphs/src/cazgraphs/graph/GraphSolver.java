@@ -1,48 +1,38 @@
 package cazgraphs.graph;
 
 import java.util.*;
+import java.util.function.Supplier;
 
+import cazgraphs.CazgraphException;
 import cazgraphs.graph.model.*;
 import cazgraphs.graph.style.CyclicTreeGraphStyle;
 
 /** 
  * Provides various static methods for solving various graph problems
  * with GraphSprites. 
+ * The results of findRoots, hasCycles for undirected graphs, isTree, and 
+ * simpleTopology are remembered for each graph until the graph's 
+ * modification stamp changes, so asking again for an unchanged graph 
+ * completes in O(1) time. findComponents and hasCycles for directed graphs 
+ * instead use the graph's own ComponentTracker and OnlineTopologicalOrder, 
+ * which keep up with edits incrementally. All of those results are read-only.
  */
 public class GraphSolver {
   
-  /** Finds the connected components of a graph. Completes in O(n) time. */
+  /** The maximum number of results remembered for each graph. */
+  private static final int MAX_CACHED_RESULTS = 64;
+  
+  /** The remembered results for each graph. Entries go away with their graphs. */
+  private static Map<DirectedGraph, ResultCache> resultCaches = new WeakHashMap<>();
+  
+  
+  /** 
+   * Finds the connected components of a graph. The components are tracked 
+   * incrementally as vertices and edges are added, so this completes in 
+   * O(n) time the first time and after removals, and O(1) otherwise.
+   */
   public static List<Set<String>> findComponents(DirectedGraph graph) {
-    List<Set<String>> components = new ArrayList<>();
-    
-    // keep track of which which nodes have already been visited, along with their 
-    Set<String> visited = new HashSet<>();
-    for(String startID : graph.getVertexIDs()) {
-      if(visited.contains(startID)) {
-        continue;
-      }
-      
-      Set<String> component = new HashSet<>();
-      
-      // do a depth-first-search to populate the component.
-      Stack<String> dfs = new Stack<>();
-      dfs.push(startID);
-      while(!dfs.empty()) {
-        String vertexID = dfs.pop();
-        if(!visited.contains(vertexID)) {
-          component.add(vertexID);
-          visited.add(vertexID);
-          
-          for(String otherID : graph.getNeighbors(vertexID)) {
-            dfs.push(otherID);
-          }
-        }
-      }
-      
-      components.add(component);
-    }
-    
-    return components;
+    return graph.getComponentTracker().getComponents();
   }
   
   
@@ -51,54 +41,56 @@ public class GraphSolver {
    * Finds the roots of the connected components in a graph. 
    * Here we define the roots as a minimum set of vertices from which all
    * other vertices in the graph can be accessed.
-   * Completes in O(n) time.
+   * This picks one vertex from each strongly connected component that has no 
+   * incoming edges from other components (the sources of the graph's 
+   * condensation). For a cyclic component, the vertex with the most forward 
+   * edges is picked. The graph is neither copied nor modified.
+   * Completes in O(V+E) time.
    */
   public static Set<String> findRoots(DirectedGraph graph) {
-    DirectedGraph graphCopy = graph.createCopy();
-    Set<String> roots = new HashSet<>();
-    
-    // Source vertices are roots.
-    Set<String> sources = findSources(graphCopy);
+    return _memoize(graph, "findRoots", null, () -> Collections.unmodifiableSet(_findRoots(graph)));
+  }
+  
+  private static Set<String> _findRoots(DirectedGraph graph) {
+    SCCIndex scc = _tarjan(graph);
+    int n = scc.ids.length;
     
-    // Add each source as a root and remove their subgraphs from the graph copy.
-    for(String source : sources) {
-      roots.add(source);
-      graphCopy.removeSubGraph(source);
+    // Find the components in the condensation that have no incoming edges.
+    boolean[] hasIncoming = new boolean[scc.numComponents];
+    for(int v = 0; v < n; v++) {
+      int comp = scc.component[v];
+      if(hasIncoming[comp]) {
+        continue;
+      }
+      for(int e = scc.inStart[v]; e < scc.inStart[v+1]; e++) {
+        if(scc.component[scc.in[e]] != comp) {
+          hasIncoming[comp] = true;
+          break;
+        }
+      }
     }
     
-    // Find the remaining non-source root vertices.
-    while(graphCopy.size() > 0) {
-      List<Set<String>> components = findComponents(graphCopy);
-      for(Set<String> component : components) {
-        String topID = null;
-        Set<String> visited = new HashSet<>();
-        
-        // Find the "top" vertices in each component.
-        for(String vertexID : component) {
-          if(!visited.contains(vertexID)) {
-            topID = vertexID;
-            
-            // Visit each vertex accessible from the top vertex by dfs.
-            Stack<String> dfs = new Stack<>();
-            dfs.push(topID);
-            while(!dfs.empty()) {
-              String id = dfs.pop();
-              if(!visited.contains(id)) {
-                visited.add(id);
-                for(String otherID : graphCopy.getEdges(id)) {
-                  dfs.push(otherID);
-                }
-              }
-            }
-          }
+    // Pick a representative vertex for each source component.
+    int[] representative = new int[scc.numComponents];
+    int[] repDegree = new int[scc.numComponents];
+    Arrays.fill(representative, -1);
+    for(int v = 0; v < n; v++) {
+      int comp = scc.component[v];
+      if(!hasIncoming[comp]) {
+        int degree = scc.outStart[v+1] - scc.outStart[v];
+        if(representative[comp] == -1 || degree > repDegree[comp]) {
+          representative[comp] = v;
+          repDegree[comp] = degree;
         }
-        
-        // Add the top vertex to our roots, and remove its subgraph.
-        roots.add(topID);
-        graphCopy.removeSubGraph(topID);
       }
     }
     
+    Set<String> roots = new HashSet<>();
+    for(int comp = 0; comp < scc.numComponents; comp++) {
+      if(representative[comp] != -1) {
+        roots.add(scc.ids[representative[comp]]);
+      }
+    }
     return roots;
   }
   
@@ -133,23 +125,27 @@ public class GraphSolver {
   
   /** Returns the set of nodes reachable from a particular node. Completes in O(n) time. */
   public static Set<String> reachableNodes(DirectedGraph graph, String rootID) {  
-    Set<String> visited = new HashSet<>();
-    Stack<String> dfs = new Stack<>();
-    
-    dfs.push(rootID);
-    while(!dfs.empty()) {
-      String vertexID = dfs.pop();
+    VertexIndex index = new VertexIndex(graph);
+    int root = index.indexOf(rootID);
+    long[] visited = _newBitSet(index.ids.length);
+    int[] dfs = new int[index.ids.length];
+    Set<String> result = new HashSet<>();
+    
+    int dfsTop = 0;
+    _mark(visited, root);
+    dfs[dfsTop++] = root;
+    while(dfsTop > 0) {
+      int v = dfs[--dfsTop];
+      result.add(index.ids[v]);
       
-      if(!visited.contains(vertexID)) {
-        visited.add(vertexID);
-        
-        for(String otherID : graph.getEdges(vertexID)) {
-          dfs.push(otherID);
+      for(int e = index.outStart[v]; e < index.outStart[v+1]; e++) {
+        if(_mark(visited, index.out[e])) {
+          dfs[dfsTop++] = index.out[e];
         }
       }
     }
     
-    return visited;
+    return result;
   }
   
   
@@ -163,31 +159,12 @@ public class GraphSolver {
    * Completes in O(n) time.
    */
   public static Map<String, Integer> simpleTopology(DirectedGraph graph, String topID) {
-    Map<String, Integer> depths = new HashMap<>();
-    
-    Set<String> visited = new HashSet<>();
-    Queue<String> bfsNodes = new LinkedList<>();
-    Queue<Integer> bfsDepths = new LinkedList<>();
-    
-    bfsNodes.add(topID);
-    bfsDepths.add(0);
-    while(!bfsNodes.isEmpty()) {
-      String vertexID = bfsNodes.remove();
-      int depth = bfsDepths.remove();
-      
-      if(visited.contains(vertexID)) {
-        continue;
-      }
-      visited.add(vertexID);
-      depths.put(vertexID, depth);
-      
-      for(String otherID : graph.getEdges(vertexID)) {
-        bfsNodes.add(otherID);
-        bfsDepths.add(depth + 1);
-      }
-    }
-    
-    return depths;
+    return _memoize(graph, "simpleTopology", topID, () -> Collections.unmodifiableMap(_simpleTopology(graph, topID)));
+  }
+  
+  private static Map<String, Integer> _simpleTopology(DirectedGraph graph, String topID) {
+    VertexIndex index = new VertexIndex(graph);
+    return _bfsDepths(index, index.indexOf(topID), index.outStart, index.out);
   }
   
   
@@ -200,27 +177,40 @@ public class GraphSolver {
    * Completes in O(n) time.
    */
   public static Map<String, Integer> simpleReverseTopology(DirectedGraph graph, String bottomID) {
+    VertexIndex index = new VertexIndex(graph);
+    return _bfsDepths(index, index.indexOf(bottomID), index.inStart, index.in);
+  }
+  
+  
+  /** 
+   * Computes the breadth-first depth of each vertex reachable from a start 
+   * vertex, following the edges in the given adjacency arrays. 
+   * Each frontier is a contiguous run of the queue array, so no per-vertex 
+   * depth needs to be queued alongside it.
+   */
+  private static Map<String, Integer> _bfsDepths(VertexIndex index, int start, int[] edgeStart, int[] edgeTargets) {
+    int n = index.ids.length;
     Map<String, Integer> depths = new HashMap<>();
-    
-    Set<String> visited = new HashSet<>();
-    Queue<String> bfsNodes = new LinkedList<>();
-    Queue<Integer> bfsDepths = new LinkedList<>();
-    
-    bfsNodes.add(bottomID);
-    bfsDepths.add(0);
-    while(!bfsNodes.isEmpty()) {
-      String vertexID = bfsNodes.remove();
-      int depth = bfsDepths.remove();
-      
-      if(visited.contains(vertexID)) {
-        continue;
-      }
-      visited.add(vertexID);
-      depths.put(vertexID, depth);
-      
-      for(String otherID : graph.getBackwardEdges(vertexID)) {
-        bfsNodes.add(otherID);
-        bfsDepths.add(depth + 1);
+    long[] visited = _newBitSet(n);
+    int[] queue = new int[n];
+    
+    int head = 0;
+    int tail = 0;
+    _mark(visited, start);
+    queue[tail++] = start;
+    
+    for(int depth = 0; head < tail; depth++) {
+      Integer boxedDepth = depth;
+      int frontierEnd = tail;
+      while(head < frontierEnd) {
+        int v = queue[head++];
+        depths.put(index.ids[v], boxedDepth);
+        
+        for(int e = edgeStart[v]; e < edgeStart[v+1]; e++) {
+          if(_mark(visited, edgeTargets[e])) {
+            queue[tail++] = edgeTargets[e];
+          }
+        }
       }
     }
     
@@ -239,6 +229,25 @@ public class GraphSolver {
    * Completes in O(n) time.
    */
   public static List<Set<String>> bicolorGraph(DirectedGraph graph, String startID) {
+    VertexIndex index = new VertexIndex(graph);
+    int n = index.ids.length;
+    index.buildNeighbors();
+    
+    // The color of each visited vertex.
+    int[] colors = new int[n];
+    long[] visited = _newBitSet(n);
+    IntDeque bfs = new IntDeque(n);
+    
+    // get our first starting vertex.
+    if(startID != null) {
+      _bicolorPartial(index, index.indexOf(startID), visited, colors, bfs);
+    }
+    for(int v = 0; v < n; v++) {
+      if(!_isMarked(visited, v)) {
+        _bicolorPartial(index, v, visited, colors, bfs);
+      }
+    }
+    
     List<Set<String>> result = new ArrayList<>();
     Set<String> redSet = new HashSet<>();
     Set<String> greenSet = new HashSet<>();
@@ -246,84 +255,55 @@ public class GraphSolver {
     result.add(redSet);
     result.add(greenSet);
     result.add(oddSet);
-    
-    Set<String> visited = new HashSet<>();
-    Queue<String> startingNodes = new LinkedList<>(graph.getVertexIDs());
-    
-    // get our first starting vertex.
-    String vertexID = startID;
-    if(vertexID == null) {
-      vertexID = startingNodes.remove();
-    }
-    
-    while(!startingNodes.isEmpty()) {
-      if(!visited.contains(vertexID)) {
-        _bicolorPartial(graph, vertexID, visited, result);
+    for(int v = 0; v < n; v++) {
+      if(colors[v] == RED) {
+        redSet.add(index.ids[v]);
+      }
+      else if(colors[v] == GREEN) {
+        greenSet.add(index.ids[v]);
+      }
+      else if(colors[v] == ODD) {
+        oddSet.add(index.ids[v]);
       }
-      
-      // get our next starting vertex.
-      vertexID = startingNodes.remove();
-    }
-    
-    // We might have one vertex left over. Be sure to color it too.
-    if(!visited.contains(vertexID)) {
-      _bicolorPartial(graph, vertexID, visited, result);
     }
-    
     return result;
   }
   
   
-  /** Computes the bipartness of part of a graph by bfs. */
-  private static void _bicolorPartial(DirectedGraph graph, String vertexID, Set<String> visited, List<Set<String>> result) {
-    int RED = 0;
-    int GREEN = 1;
-    int ODD = -1;
-    
-    Set<String> redSet = result.get(0);
-    Set<String> greenSet = result.get(1);
-    Set<String> oddSet = result.get(2);
-    
-    Queue<String> bfsNodes = new LinkedList<>();
-    Queue<Integer> bfsDest = new LinkedList<>();
-    
-    // Ready our bfs queues.
-    bfsNodes.add(vertexID);
-    bfsDest.add(RED);
+  /** Vertex colors used by bicolorGraph. */
+  private static final int UNCOLORED = 0;
+  private static final int RED = 1;
+  private static final int GREEN = 2;
+  private static final int ODD = 3;
+  
+  /** 
+   * Computes the bipartness of part of a graph by bfs. A vertex may be queued 
+   * more than once, with different colors. The first one dequeued wins. 
+   */
+  private static void _bicolorPartial(VertexIndex index, int start, long[] visited, int[] colors, IntDeque bfs) {
+    bfs.clear();
+    bfs.add(start, RED);
     
     // Do a breadth-first search do compute the graph coloring.
-    while(!bfsNodes.isEmpty()) {
-      vertexID = bfsNodes.remove();
-      int color = bfsDest.remove();
+    while(!bfs.isEmpty()) {
+      int color = bfs.peekTag();
+      int v = bfs.remove();
       
       // process the node.
-      if(!visited.contains(vertexID)) {
-        visited.add(vertexID);
-        if(color == RED) {
-          redSet.add(vertexID);
-          for(String neighborID : graph.getNeighbors(vertexID)) {
-            if(redSet.contains(neighborID)) {
-              redSet.remove(neighborID);
-              oddSet.add(neighborID);
-            }
-            else if(!greenSet.contains(neighborID)){
-              bfsNodes.add(neighborID);
-              bfsDest.add(GREEN);
-            }
-          }
+      if(!_mark(visited, v)) {
+        continue;
+      }
+      colors[v] = color;
+      
+      // The neighbors of a red vertex should be green, and vice versa.
+      int otherColor = (color == RED) ? GREEN : RED;
+      for(int e = index.nbrStart[v]; e < index.nbrStart[v+1]; e++) {
+        int w = index.nbrs[e];
+        if(colors[w] == color) {
+          colors[w] = ODD;
         }
-        else if(color == GREEN) {
-          greenSet.add(vertexID);
-          for(String neighborID : graph.getNeighbors(vertexID)) {
-            if(greenSet.contains(neighborID)) {
-              greenSet.remove(neighborID);
-              oddSet.add(neighborID);
-            }
-            else if(!redSet.contains(neighborID)){
-              bfsNodes.add(neighborID);
-              bfsDest.add(RED);
-            }
-          }
+        else if(colors[w] != otherColor) {
+          bfs.add(w, otherColor);
         }
       }
     }
@@ -332,87 +312,70 @@ public class GraphSolver {
   
   
   /** 
-   * Returns true iff any component has cycles. 
-   * Completes in O(n) time. 
+   * Computes the strongly connected components of a directed graph. Two 
+   * vertices are in the same component iff each is reachable from the other.
+   * The components are listed in reverse topological order of the graph's 
+   * condensation: no component has an edge into a component listed after it.
+   * The search uses an explicit stack, so it is safe for graphs with very 
+   * long paths.
+   * Completes in O(V+E) time.
    */
-  public static boolean hasCycles(DirectedGraph graph, boolean isDirected) {
-    if(isDirected) {
-      // Nodes can be marked either 0 or 1. 
-      // 0 means that the node's descending paths are being explored. 
-      // 1 means that the node's descending paths have been completely 
-      // explorered and found to contain no cycles.
-      Map<String, Integer> mark = new HashMap<>();
-      
-      for(String firstID : graph.getVertexIDs()) {
-        if(!mark.containsKey(firstID)) {
-          if(_hasCyclesDirected(graph, firstID, mark)) {
-            return true;
-          }
-        }
-      }
-      return false;
+  public static List<Set<String>> stronglyConnectedComponents(DirectedGraph graph) {
+    SCCIndex scc = _tarjan(graph);
+    
+    List<Set<String>> components = new ArrayList<>(scc.numComponents);
+    for(int i = 0; i < scc.numComponents; i++) {
+      components.add(new HashSet<String>());
     }
-    else {
-      return _hasCyclesUndirected(graph);
+    for(int v = 0; v < scc.ids.length; v++) {
+      components.get(scc.component[v]).add(scc.ids[v]);
     }
+    return components;
   }
   
+  
   /** 
-   * A directed graph has a cycle iff a depth-first search finds a back edge. 
-   * This is a bit more complicated than detecting a cycle in an undireceted graph. 
+   * Returns true iff any component has cycles. 
+   * For directed graphs, this is kept current by the graph's online 
+   * topological order, so it is cheap to ask again while edges are added.
+   * Completes in O(V+E) time. 
    */
-  private static boolean _hasCyclesDirected(DirectedGraph graph, String vertexID, Map<String, Integer> mark) {
-    // Mark it 0 to show that we've visited the node, but we're still exploring 
-    // its descending paths.
-    mark.put(vertexID, 0);
-    
-    // explore the node's adjacency list.
-    for(String nextID : graph.getEdges(vertexID)) {
-      if(!mark.containsKey(nextID) && _hasCyclesDirected(graph, nextID, mark)) {
-        return true;
-      }
-      else if(mark.get(nextID) == 0) {
-        // We've revisited a node in a path currently being explored. 
-        // This means we've encountered a back-edge and therefore encountered 
-        // a cycle.
-        return true;
-      }
+  public static boolean hasCycles(DirectedGraph graph, boolean isDirected) {
+    if(isDirected) {
+      return !graph.getTopologicalOrder().isAcyclic();
     }
-    
-    // We've completely explored the node's adjacency list without encountering
-    // a back-edge. Mark it as 1.
-    mark.put(vertexID, 1);
-    return false;
+    return _memoize(graph, "hasCycles", null, () -> _hasCyclesUndirected(graph));
   }
   
   private static boolean _hasCyclesUndirected(DirectedGraph graph) {
-    Set<String> visited = new HashSet<>();
+    VertexIndex index = new VertexIndex(graph);
+    int n = index.ids.length;
+    index.buildNeighbors();
+    
+    long[] visited = _newBitSet(n);
     
-    for(String startID : graph.getVertexIDs()) {
-      if(!visited.contains(startID)) {
+    // Each entry is a vertex, tagged with the vertex it was reached from 
+    // (or -1), so the search doesn't step straight back along the same edge.
+    IntDeque dfs = new IntDeque(n);
+    for(int start = 0; start < n; start++) {
+      if(!_isMarked(visited, start)) {
         
         // do a depth first search from this node.
-        Stack<String> dfs = new Stack<>();
-        Stack<String> dfsPrev = new Stack<>();
-        dfs.push(startID);
-        dfsPrev.push(null);
+        dfs.clear();
+        dfs.push(start, -1);
         
         while(!dfs.isEmpty()) {
-          String vertexID = dfs.pop();
-          String prevID = dfsPrev.pop();
+          int prev = dfs.peekLastTag();
+          int v = dfs.pop();
           
-          if(visited.contains(vertexID)) {
+          if(!_mark(visited, v)) {
             return true;
           }
-          else {
-            visited.add(vertexID);
-            
-            // traverse our edges (except to the node that we came from).
-            for(String nextID : graph.getNeighbors(vertexID)) {
-              if(!nextID.equals(prevID)) {
-                dfs.push(nextID);
-                dfsPrev.push(vertexID);
-              }
+          
+          // traverse our edges (except to the node that we came from).
+          for(int e = index.nbrStart[v]; e < index.nbrStart[v+1]; e++) {
+            if(index.nbrs[e] != prev) {
+              dfs.push(index.nbrs[e], v);
             }
           }
         }
@@ -428,17 +391,21 @@ public class GraphSolver {
    * Completes in O(n) time.
    */
   public static boolean isTree(DirectedGraph graph) {
-    if(graph.size() == 0 || _hasCyclesUndirected(graph)) {
+    return _memoize(graph, "isTree", null, () -> _isTree(graph));
+  }
+  
+  private static boolean _isTree(DirectedGraph graph) {
+    if(graph.size() == 0) {
       return false;
     }
-    else {
-      for(String vertexID : graph.getVertexIDs()) {
-        if(graph.getBackwardEdges(vertexID).size() > 1) {
-          return false;
-        }
+    
+    // Check the in-degrees first, since they don't need a traversal.
+    for(String vertexID : graph.getVertexIDs()) {
+      if(graph.getBackwardEdges(vertexID).size() > 1) {
+        return false;
       }
-      return true;
     }
+    return !_hasCyclesUndirected(graph);
   }
   
   
@@ -450,81 +417,448 @@ public class GraphSolver {
    */
   public static DirectedGraph convertToTree(DirectedGraph graph) {
     Set<String> roots = findRoots(graph);
-    int nodeNum = 0;
+    VertexIndex index = new VertexIndex(graph);
+    int n = index.ids.length;
     
     // The graph could become several individual trees.
     DirectedGraph forest = new DirectedGraph();
     
     // Marks nodes as visited.
-    // A node is marked 0 if its "subtree" is currently being explored.
-    // A node is marked 1 if its "subtree" has been completely explored without encountering a cycle.
-    // A node is marked 2 if it is encountered again in a cycle.
-    Map<String, Integer> mark = new HashMap<>();
-    
-    // We'll pass an integer by reference to produce unique IDs for duplicate nodes.
-    IntPointer dupID = new IntPointer(0);
+    // A node is marked EXPLORING if its "subtree" is currently being explored.
+    // A node is marked SAFE if its "subtree" has been completely explored without encountering a cycle.
+    // A node is marked CYCLIC if it is encountered again in a cycle.
+    final int UNMARKED = 0;
+    final int EXPLORING = 1;
+    final int SAFE = 2;
+    final int CYCLIC = 3;
+    int[] mark = new int[n];
+    
+    // Used to produce unique IDs for duplicate nodes.
+    int dupID = 0;
+    
+    // The dfs stack holds the path currently being explored. Vertices on the 
+    // path are never re-entered, so it is at most n deep.
+    int[] dfs = new int[n];
+    String[] dfsTreeIDs = new String[n];
+    int[] dfsEdges = new int[n];
     
     // Produce a tree for each possible root.
     for(String rootID : roots) {
-      _convertToTree(forest, graph, rootID, null, mark, dupID);
+      int dfsTop = 0;
+      String prevTreeID = null;
+      int next = index.indexOf(rootID);
+      
+      while(true) {
+        if(next != -1) {
+          // Copy the node into the tree and start exploring its "subtree".
+          String vertexID = index.ids[next];
+          mark[next] = EXPLORING;
+          
+          String treeVertexID;
+          if(!forest.hasVertex(vertexID)) {
+            treeVertexID = vertexID;
+          }
+          else {
+            treeVertexID = "dup;" + vertexID + ";" + dupID;
+            dupID++;
+          }
+          forest.addVertex(treeVertexID, graph.getObject(vertexID));
+          
+          if(prevTreeID != null) {
+            forest.addEdge(prevTreeID, treeVertexID);
+          }
+          
+          dfs[dfsTop] = next;
+          dfsTreeIDs[dfsTop] = treeVertexID;
+          dfsEdges[dfsTop] = index.outStart[next];
+          dfsTop++;
+          next = -1;
+        }
+        
+        if(dfsTop == 0) {
+          break;
+        }
+        
+        int v = dfs[dfsTop-1];
+        String treeVertexID = dfsTreeIDs[dfsTop-1];
+ 
+        if(dfsEdges[dfsTop-1] < index.outStart[v+1]) {
+          int w = index.out[dfsEdges[dfsTop-1]++];
+          String nextID = index.ids[w];
+          
+          if(mark[w] == UNMARKED || mark[w] == SAFE) {
+            // explore the "subtree".
+            next = w;
+            prevTreeID = treeVertexID;
+          }
+          else {
+            // A cycle! Copy the cycle node, but don't explore its children.
+            mark[w] = CYCLIC;
+            
+            String cycleVertexID = "ref;" + nextID + ";" + dupID;
+            forest.addVertex(cycleVertexID, cycleVertexID);
+            dupID++;
+            
+            forest.addEdge(treeVertexID, cycleVertexID);
+          }
+        }
+        else {
+          // mark the path as safe.
+          if(mark[v] != CYCLIC) {
+            mark[v] = SAFE;
+          }
+          
+          dfsTop--;
+          dfsTreeIDs[dfsTop] = null;
+        }
+      }
     }
     
     return forest;
   }
   
-  private static void _convertToTree(DirectedGraph forest, DirectedGraph graph, String vertexID, String prevID, Map<String, Integer> mark, IntPointer dupID) {
-    mark.put(vertexID, 0);
-    
-    // copy the node into the tree.
-    String treeVertexID;
-    if(!forest.hasVertex(vertexID)) {
-      treeVertexID = vertexID;
-      forest.addVertex(treeVertexID, graph.getObject(vertexID));
+  
+  /** 
+   * Computes the strongly connected components of a directed graph using 
+   * Tarjan's algorithm. The depth-first search uses an explicit stack, so 
+   * long paths can't overflow the call stack. Components are numbered in 
+   * reverse topological order of the graph's condensation.
+   * Completes in O(V+E) time.
+   */
+  private static SCCIndex _tarjan(DirectedGraph graph) {
+    SCCIndex scc = new SCCIndex(graph);
+    int n = scc.ids.length;
+    
+    // A vertex is on Tarjan's stack iff it has been discovered but not yet 
+    // assigned to a component.
+    int[] discovered = new int[n];
+    int[] lowLink = new int[n];
+    Arrays.fill(discovered, -1);
+    Arrays.fill(scc.component, -1);
+    int time = 0;
+    
+    int[] tarjanStack = new int[n];
+    int tarjanTop = 0;
+    
+    // The dfs stack holds each active vertex and the position of its next 
+    // forward edge.
+    int[] dfs = new int[n];
+    int[] dfsEdges = new int[n];
+    int dfsTop = 0;
+    
+    for(int start = 0; start < n; start++) {
+      if(discovered[start] != -1) {
+        continue;
+      }
+      
+      discovered[start] = lowLink[start] = time++;
+      tarjanStack[tarjanTop++] = start;
+      dfs[dfsTop] = start;
+      dfsEdges[dfsTop] = scc.outStart[start];
+      dfsTop++;
+      
+      while(dfsTop > 0) {
+        int v = dfs[dfsTop-1];
+        
+        if(dfsEdges[dfsTop-1] < scc.outStart[v+1]) {
+          int w = scc.out[dfsEdges[dfsTop-1]++];
+          if(discovered[w] == -1) {
+            // Descend into w.
+            discovered[w] = lowLink[w] = time++;
+            tarjanStack[tarjanTop++] = w;
+            dfs[dfsTop] = w;
+            dfsEdges[dfsTop] = scc.outStart[w];
+            dfsTop++;
+          }
+          else if(scc.component[w] == -1) {
+            lowLink[v] = Math.min(lowLink[v], discovered[w]);
+          }
+        }
+        else {
+          // v is finished. If it's the root of a component, pop the component.
+          dfsTop--;
+          
+          if(lowLink[v] == discovered[v]) {
+            int w;
+            do {
+              w = tarjanStack[--tarjanTop];
+              scc.component[w] = scc.numComponents;
+            } while(w != v);
+            scc.numComponents++;
+          }
+          
+          if(dfsTop > 0) {
+            int parent = dfs[dfsTop-1];
+            lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+          }
+        }
+      }
     }
-    else {
-      treeVertexID = "dup;" + vertexID + ";" + dupID.value;
-      forest.addVertex(treeVertexID, graph.getObject(vertexID));
-      dupID.value++;
+    
+    return scc;
+  }
+  
+  
+  /** 
+   * Returns the remembered result of an algorithm for a graph and argument, 
+   * if the graph hasn't been modified since it was computed. Otherwise, 
+   * computes the result with solver and remembers it.
+   */
+  @SuppressWarnings("unchecked")
+  private static <T> T _memoize(DirectedGraph graph, String algorithm, Object arg, Supplier<T> solver) {
+    ResultCache cache;
+    synchronized(resultCaches) {
+      cache = resultCaches.computeIfAbsent(graph, key -> new ResultCache());
     }
     
+    List<Object> key = Arrays.asList(algorithm, arg);
+    long stamp = graph.getModificationStamp();
+    synchronized(cache) {
+      if(cache.stamp != stamp) {
+        cache.results.clear();
+        cache.stamp = stamp;
+      }
+      else if(cache.results.containsKey(key)) {
+        return (T) cache.results.get(key);
+      }
+    }
     
-    if(prevID != null) {
-      forest.addEdge(prevID, treeVertexID);
+    T result = solver.get();
+    synchronized(cache) {
+      if(cache.stamp == stamp) {
+        cache.results.put(key, result);
+      }
     }
+    return result;
+  }
+  
+  
+  /** The results remembered for one graph, valid for one modification stamp. */
+  private static class ResultCache {
+    
+    long stamp = 0;
     
-    for(String nextID : graph.getEdges(vertexID)) {
-      if(!mark.containsKey(nextID) || mark.get(nextID) == 1) {
-        // explore the "subtree".
-        _convertToTree(forest, graph, nextID, treeVertexID, mark, dupID);
+    /** Results keyed by algorithm and argument, in least-recently-used order. */
+    Map<List<Object>, Object> results = new LinkedHashMap<List<Object>, Object>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest) {
+        return size() > MAX_CACHED_RESULTS;
       }
-      else if(mark.get(nextID) == 0 || mark.get(nextID) == 2) {
-        // A cycle! Copy the cycle node, but don't explore its children.
-        mark.put(nextID, 2);
-        
-        String cycleVertexID = "ref;" + nextID + ";" + dupID.value;
-        forest.addVertex(cycleVertexID, cycleVertexID);
-        dupID.value++;
-        
-        forest.addEdge(treeVertexID, cycleVertexID);
+    };
+  }
+  
+  
+  //////// Traversal kernel
+  
+  /** 
+   * Dense indices for the vertices of a graph, in the graph's iteration order, 
+   * along with its edges in compressed sparse row form. The edges leaving 
+   * vertex v are out[outStart[v]] through out[outStart[v+1]-1], in the order 
+   * the graph iterates them, and likewise for in and inStart. 
+   * Building the index costs one hash lookup per edge. After that, the 
+   * traversals work purely on int arrays.
+   */
+  private static class VertexIndex {
+    
+    /** The vertex IDs, indexed by vertex index. */
+    String[] ids;
+    
+    /** Maps vertex IDs to their indices. */
+    Map<String, Integer> indices;
+    
+    /** The forward edges of each vertex. */
+    int[] outStart;
+    int[] out;
+    
+    /** The backward edges of each vertex. */
+    int[] inStart;
+    int[] in;
+    
+    /** 
+     * The forward edges of each vertex followed by its backward edges that 
+     * aren't also forward edges, as visited by DirectedGraph.forEachNeighbor. 
+     * Null until buildNeighbors is called.
+     */
+    int[] nbrStart;
+    int[] nbrs;
+    
+    VertexIndex(DirectedGraph graph) {
+      int n = graph.size();
+      ids = new String[n];
+      indices = new HashMap<>(n*2);
+      
+      int i = 0;
+      int numEdges = 0;
+      for(String vertexID : graph.getVertexIDs()) {
+        ids[i] = vertexID;
+        indices.put(vertexID, i);
+        numEdges += graph.getEdges(vertexID).size();
+        i++;
+      }
+      
+      // Fill in the forward edges, counting the backward edges as we go.
+      outStart = new int[n+1];
+      out = new int[numEdges];
+      inStart = new int[n+1];
+      int e = 0;
+      for(int v = 0; v < n; v++) {
+        outStart[v] = e;
+        for(String toID : graph.getEdges(ids[v])) {
+          int w = indices.get(toID);
+          out[e++] = w;
+          inStart[w+1]++;
+        }
+      }
+      outStart[n] = e;
+      
+      // The backward edges are the forward edges transposed.
+      for(int v = 0; v < n; v++) {
+        inStart[v+1] += inStart[v];
+      }
+      in = new int[numEdges];
+      int[] fill = Arrays.copyOf(inStart, n);
+      for(int v = 0; v < n; v++) {
+        for(e = outStart[v]; e < outStart[v+1]; e++) {
+          in[fill[out[e]]++] = v;
+        }
       }
     }
     
-    // mark the path as safe.
-    if(mark.get(vertexID) != 2) {
-      mark.put(vertexID, 1);
+    /** Returns the index of a vertex, throwing a CazgraphException if it isn't in the graph. */
+    int indexOf(String vertexID) {
+      Integer i = indices.get(vertexID);
+      if(i == null) {
+        throw new CazgraphException("Vertex " + vertexID + " doesn't exist in the graph.");
+      }
+      return i;
+    }
+    
+    /** Builds the combined neighbor arrays, if they haven't been built yet. */
+    void buildNeighbors() {
+      if(nbrStart != null) {
+        return;
+      }
+      
+      int n = ids.length;
+      nbrStart = new int[n+1];
+      nbrs = new int[out.length + in.length];
+      
+      // lastSeen[w] == v+1 iff w is already a forward neighbor of v.
+      int[] lastSeen = new int[n];
+      int k = 0;
+      for(int v = 0; v < n; v++) {
+        nbrStart[v] = k;
+        for(int e = outStart[v]; e < outStart[v+1]; e++) {
+          lastSeen[out[e]] = v+1;
+          nbrs[k++] = out[e];
+        }
+        for(int e = inStart[v]; e < inStart[v+1]; e++) {
+          if(lastSeen[in[e]] != v+1) {
+            nbrs[k++] = in[e];
+          }
+        }
+      }
+      nbrStart[n] = k;
     }
   }
   
   
+  /** Returns a bitset large enough to hold n bits, all cleared. */
+  private static long[] _newBitSet(int n) {
+    return new long[(n + 63) >>> 6];
+  }
+  
+  /** Sets bit i. Returns true iff it wasn't already set. */
+  private static boolean _mark(long[] bits, int i) {
+    long mask = 1L << i;
+    long word = bits[i >>> 6];
+    if((word & mask) != 0) {
+      return false;
+    }
+    bits[i >>> 6] = word | mask;
+    return true;
+  }
+  
+  /** Returns true iff bit i is set. */
+  private static boolean _isMarked(long[] bits, int i) {
+    return (bits[i >>> 6] & (1L << i)) != 0;
+  }
+  
+  
   /** 
-   * An object used to pass an integer by reference. 
+   * A growable array of vertex indices, each carrying an int tag, that can be 
+   * taken from the front like a queue or from the back like a stack. 
+   * Space taken from the front is only reclaimed by clear.
    */
-  private static class IntPointer {
-    int value;
+  private static class IntDeque {
+    
+    int[] items;
+    int[] tags;
+    int head = 0;
+    int tail = 0;
+    
+    IntDeque(int capacity) {
+      capacity = Math.max(capacity, 16);
+      items = new int[capacity];
+      tags = new int[capacity];
+    }
+    
+    boolean isEmpty() {
+      return head == tail;
+    }
+    
+    void clear() {
+      head = tail = 0;
+    }
+    
+    /** Adds an item to the back. */
+    void add(int item, int tag) {
+      if(tail == items.length) {
+        items = Arrays.copyOf(items, tail*2);
+        tags = Arrays.copyOf(tags, tail*2);
+      }
+      items[tail] = item;
+      tags[tail] = tag;
+      tail++;
+    }
+    
+    void push(int item, int tag) {
+      add(item, tag);
+    }
+    
+    /** Returns the tag of the front item. */
+    int peekTag() {
+      return tags[head];
+    }
+    
+    /** Removes and returns the front item. */
+    int remove() {
+      return items[head++];
+    }
+    
+    /** Returns the tag of the back item. */
+    int peekLastTag() {
+      return tags[tail-1];
+    }
     
-    public IntPointer(int value) {
-      this.value = value;
+    /** Removes and returns the back item. */
+    int pop() {
+      return items[--tail];
+    }
+  }
+  
+  
+  /** Dense vertex indices, along with the strongly connected component each vertex belongs to. */
+  private static class SCCIndex extends VertexIndex {
+    
+    /** The component number of each vertex. */
+    int[] component;
+    
+    /** The number of components. */
+    int numComponents = 0;
+    
+    SCCIndex(DirectedGraph graph) {
+      super(graph);
+      component = new int[ids.length];
     }
   }
 }
-
@@ -5,7 +5,6 @@ import java.awt.geom.*;
 import java.awt.image.*;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -43,6 +42,12 @@ public class GraphSprite extends Sprite {
   /** The set of nodes that are currently selected. */
   public Set<VertexSprite> selectedNodes = new HashSet<>();
   
+  /** 
+   * Incremented whenever the vertices' nesting, expansion, or visibility 
+   * changes, so that each vertex knows to recompute its cached visibility. 
+   */
+  int nestingEpoch = 0;
+  
   /** The style for specifying the colors and font metrics for this graph. */
   private GraphStyle style = new DefaultGraphStyle();
   
@@ -101,6 +106,7 @@ public class GraphSprite extends Sprite {
     
     VertexSprite sprite = new VertexSprite(this, id);
     vertexSprites.put(id, sprite);
+    invalidate();
     
     layoutAlgorithm.resetPhysics(sprite);
     layoutAlgorithm.setPaused(false);
@@ -127,6 +133,7 @@ public class GraphSprite extends Sprite {
     sprite.clearChildren();
     
     layoutAlgorithm.setPaused(false);
+    invalidate();
   }
   
   
@@ -140,6 +147,7 @@ public class GraphSprite extends Sprite {
   public void setObject(String vertexID, Object obj) {
     graph.setObject(vertexID, obj);
     layoutAlgorithm.updatePhysics(getSprite(vertexID));
+    invalidate();
   }
   
   
@@ -189,6 +197,7 @@ public class GraphSprite extends Sprite {
       vertex.setEdgeLabel(to, label);
     }
     
+    invalidate();
     layoutAlgorithm.setPaused(false);
   }
   
@@ -197,18 +206,21 @@ public class GraphSprite extends Sprite {
   /** Removes the edge from one vertex to another if it is present. */
   public void removeEdge(String from, String to) {
     graph.removeEdge(from, to);
+    invalidate();
     layoutAlgorithm.setPaused(false);
   }
   
   /** Removes all edges in this graph. */
   public void removeAllEdges() {
     graph.removeAllEdges();
+    invalidate();
   }
   
   
   /** Removes all edges to and from the specified vertex. */
   public void removeAllEdges(String vertexID) {
     graph.removeAllEdges(vertexID);
+    invalidate();
   }
   
   
@@ -226,6 +238,7 @@ public class GraphSprite extends Sprite {
   /** Clears the graph. */
   public void clear() {
     graph.clear();
+    invalidate();
   }
   
   
@@ -265,12 +278,19 @@ public class GraphSprite extends Sprite {
     return GraphSolver.findRoots(getGraph());
   }
   
-  /** Returns a list of the connected components of the graph. */
+  /** 
+   * Returns a list of the connected components of the graph. The components 
+   * are tracked incrementally as vertices and edges are added.
+   */
   public List<Set<String>> findComponents() {
     return GraphSolver.findComponents(getGraph());
   }
   
-  /** Returns true iff this graph contains any cycles. */
+  /** 
+   * Returns true iff this graph contains any cycles. The answer is kept 
+   * current incrementally as edges are added, so repeated calls while 
+   * the graph is being edited are cheap.
+   */
   public boolean hasCycles() {
     return GraphSolver.hasCycles(getGraph(), true);
   }
@@ -313,6 +333,7 @@ public class GraphSprite extends Sprite {
     for(VertexSprite sprite : getSprites()) {
       alg.resetPhysics(sprite);
     }
+    invalidate();
   }
   
   
@@ -324,16 +345,36 @@ public class GraphSprite extends Sprite {
    * Null, if no node contains the point.
    */
   public VertexSprite getNodeAtPoint(Point2D p) {
-    List<VertexSprite> spriteList = new ArrayList<>(vertexSprites.values());
-    Collections.reverse(spriteList);
+    // Vertices are hit-tested with the transform they were last drawn with.
+    AffineTransform transform = (bufferTransform == null) ? new AffineTransform() : bufferTransform;
     
-    for(VertexSprite vertex : spriteList) {
-      if(vertex.containsPoint(p)) {
-        return vertex;
-      }
+    try {
+      // Vertices drawn as points don't have shapes to test against.
+      Point2D graphP = transform.inverseTransform(p, null);
+      boolean exact = Math.sqrt(Math.abs(transform.getDeterminant())) >= pointZoom;
+      return _getSpatialIndex().getVertexAt(graphP, exact ? p : null);
     }
-    
-    return null;
+    catch(NoninvertibleTransformException e) {
+      return null;
+    }
+  }
+  
+  
+  /** 
+   * Returns the vertices whose centers lie in a rectangle, given in graph 
+   * coordinates, as of the last time the graph was drawn. 
+   */
+  public List<VertexSprite> getVerticesInRect(Rectangle2D rect) {
+    return _getSpatialIndex().getVerticesInRect(rect);
+  }
+  
+  
+  /** Returns the spatial index, building it if it has been invalidated since the last frame. */
+  private VertexGrid _getSpatialIndex() {
+    if(spatialIndex == null) {
+      spatialIndex = new VertexGrid(getSprites());
+    }
+    return spatialIndex;
   }
   
   
@@ -380,40 +421,520 @@ public class GraphSprite extends Sprite {
       vertex.setSelected(false);
     }
     selectedNodes.clear();
+    invalidateImage();
   }
   
   
   //////// Rendering
   
-  /** Draws the graph's vertices and edges. */
+  /** 
+   * Padding, in graph coordinates, around the regions redrawn for moved 
+   * vertices. This covers edge arrowheads and edges to self.
+   */
+  private static final double DIRTY_PADDING = 48;
+  
+  /** If more vertices than this moved since the last frame, the whole graph is redrawn. */
+  private static final int MAX_DIRTY_VERTICES = 64;
+  
+  /** The image the graph is drawn into. It is reused between frames. */
+  private VolatileImage backBuffer = null;
+  
+  /** The transform the back buffer was last drawn with. */
+  private AffineTransform bufferTransform = null;
+  
+  /** Whether the back buffer is up to date, except for vertices that moved since it was drawn. */
+  private boolean bufferValid = false;
+  
+  /** 
+   * The spatial index of the vertices, as they were last drawn, used for 
+   * hit testing. Null if it needs to be rebuilt.
+   */
+  private VertexGrid spatialIndex = null;
+  
+  /** If more than this fraction of the vertices moved since the last frame, the spatial index is rebuilt rather than updated. */
+  private static final double MAX_MOVED_FRACTION = 0.25;
+  
+  /** Below this zoom, vertex and edge labels aren't drawn. */
+  public double labelZoom = 0.3;
+  
+  /** Below this zoom, vertices are drawn as points and edges as plain lines between their centers. */
+  public double pointZoom = 0.1;
+  
+  /** 
+   * Below this zoom, edges are aggregated into lines between small blocks 
+   * of pixels, drawn more opaque the more edges they stand for. 
+   */
+  public double densityZoom = 0.03;
+  
+  /** The size, in pixels, of the blocks vertices and edges are aggregated into below densityZoom. */
+  private static final int DENSITY_CELL = 4;
+  
+  /** 
+   * The region of the graph, in graph coordinates, being drawn. Edges 
+   * outside it are skipped. Null if everything is being drawn.
+   */
+  private Rectangle2D viewRect = null;
+  
+  /** Whether labels are being drawn at the current zoom. */
+  private boolean drawingLabels = true;
+  
+  /** 
+   * The pairs of visible vertices already joined by edges redirected from 
+   * collapsed vertices this frame, packed by their drawing ranks. 
+   * Null until such an edge is drawn.
+   */
+  private Set<Long> collapsedEdges = null;
+  
+  /** The batch edges are collected in while drawing, reused between frames. */
+  private EdgeBatch edgeBatch = new EdgeBatch();
+  
+  /** 
+   * Draws the graph's vertices and edges.
+   * The graph is drawn into a back buffer that is kept between frames. 
+   * While the layout is paused and no vertices are selected, the previous 
+   * frame is reused and only the regions around vertices that moved since 
+   * then are redrawn.
+   */
   public void draw(Graphics2D g) {
     AffineTransform origT = g.getTransform();
     g.setTransform(new AffineTransform());
     
-    Rectangle2D clipArea = g.getClip().getBounds();
-    BufferedImage drawBuffer = new BufferedImage((int) clipArea.getWidth(), (int) clipArea.getHeight(), BufferedImage.TYPE_INT_ARGB);
-    Graphics2D bufferG = drawBuffer.createGraphics();
-    bufferG.setTransform(origT);
+    Rectangle clipArea = g.getClip().getBounds();
+    int width = Math.max(1, clipArea.width);
+    int height = Math.max(1, clipArea.height);
+    GraphicsConfiguration config = g.getDeviceConfiguration();
+    
+    boolean full = !bufferValid || !origT.equals(bufferTransform) || !layoutAlgorithm.isPaused() || !selectedNodes.isEmpty();
+    Rectangle dirty = full ? null : _getDirtyRegion(origT);
+    _updateSpatialIndex();
+    
+    do {
+      int status = (backBuffer == null) ? VolatileImage.IMAGE_INCOMPATIBLE : backBuffer.validate(config);
+      if(status == VolatileImage.IMAGE_INCOMPATIBLE || backBuffer.getWidth() != width || backBuffer.getHeight() != height) {
+        if(backBuffer != null) {
+          backBuffer.flush();
+        }
+        backBuffer = config.createCompatibleVolatileImage(width, height, Transparency.TRANSLUCENT);
+        dirty = null;
+      }
+      else if(status == VolatileImage.IMAGE_RESTORED) {
+        dirty = null;
+      }
+      
+      if(dirty == null) {
+        _redraw(new Rectangle(0, 0, width, height), origT);
+      }
+      else if(!dirty.isEmpty()) {
+        _redraw(dirty, origT);
+      }
+      
+      // If the buffer's contents were lost while drawing, redraw everything.
+      dirty = null;
+    } while(backBuffer.contentsLost());
     
-    // Draw the edges. 
-    Set<String> drawnEdges = new HashSet<>();
     for(VertexSprite vertex : getSprites()) {
-      vertex.drawEdges(bufferG, drawnEdges);
+      vertex.drawnX = vertex.x;
+      vertex.drawnY = vertex.y;
     }
+    bufferTransform = origT;
+    bufferValid = true;
     
-    // Draw the vertices.
-    for(VertexSprite vertex : getSprites()) {
-      vertex.render(bufferG);
-    //  Rectangle2D box = vertex.getCollisionBox();
-    //  if(box != null) {
-    //    g.setColor(new Color(0xFFAAAA));
-    //    g.draw(box);
-    //  }
+    g.drawImage(backBuffer, 0, 0, null);
+    g.setTransform(origT);
+  }
+  
+  
+  /** 
+   * Forces the whole graph to be redrawn on the next frame. This is called 
+   * automatically for changes made through the GraphSprite and VertexSprite 
+   * methods, but should be called after changing a graph's style objects 
+   * directly.
+   */
+  public void invalidate() {
+    bufferValid = false;
+    spatialIndex = null;
+  }
+  
+  
+  /** 
+   * Forces the whole graph to be redrawn on the next frame, for changes that 
+   * don't affect the vertices' sizes or visibility, such as selection.
+   */
+  void invalidateImage() {
+    bufferValid = false;
+  }
+  
+  
+  /** 
+   * Forces the whole graph to be redrawn on the next frame, and the vertices' 
+   * cached visibility to be recomputed, after their nesting, expansion, or 
+   * visibility changes.
+   */
+  void invalidateNesting() {
+    nestingEpoch++;
+    invalidate();
+  }
+  
+  
+  /** 
+   * Brings the spatial index up to date with the vertices' current positions, 
+   * refiling the vertices that moved since the last frame.
+   */
+  private void _updateSpatialIndex() {
+    if(spatialIndex != null && spatialIndex.size() == vertexSprites.size()) {
+      List<VertexSprite> moved = new ArrayList<>();
+      int maxMoved = (int) (vertexSprites.size()*MAX_MOVED_FRACTION);
+      for(VertexSprite vertex : getSprites()) {
+        if(vertex.x != vertex.drawnX || vertex.y != vertex.drawnY) {
+          moved.add(vertex);
+          if(moved.size() > maxMoved) {
+            spatialIndex = null;
+            break;
+          }
+        }
+      }
+      
+      if(spatialIndex != null) {
+        for(VertexSprite vertex : moved) {
+          if(!spatialIndex.update(vertex)) {
+            spatialIndex = null;
+            break;
+          }
+        }
+      }
+    }
+    
+    if(spatialIndex == null || spatialIndex.size() != vertexSprites.size()) {
+      spatialIndex = new VertexGrid(getSprites());
+    }
+  }
+  
+  
+  /** 
+   * Clears a region of the back buffer, in device coordinates, and draws the 
+   * graph in it. Only the vertices and edges that overlap the region are 
+   * drawn, with less detail the further out the view is zoomed.
+   */
+  private void _redraw(Rectangle region, AffineTransform transform) {
+    Graphics2D bufferG = backBuffer.createGraphics();
+    bufferG.setClip(region);
+    bufferG.setComposite(AlphaComposite.Clear);
+    bufferG.fill(region);
+    bufferG.setComposite(AlphaComposite.SrcOver);
+    bufferG.setTransform(transform);
+    
+    double zoom = Math.sqrt(Math.abs(transform.getDeterminant()));
+    try {
+      // Pad the region so that edges and vertices poking into it are still drawn.
+      Rectangle2D view = transform.createInverse().createTransformedShape(region).getBounds2D();
+      double pad = DIRTY_PADDING + spatialIndex.getMaxExtent();
+      view.setRect(view.getX() - pad, view.getY() - pad, view.getWidth() + pad*2, view.getHeight() + pad*2);
+      viewRect = view;
+    }
+    catch(NoninvertibleTransformException e) {
+      bufferG.dispose();
+      return;
     }
+    drawingLabels = (zoom >= labelZoom);
+    List<VertexSprite> visible = spatialIndex.getVerticesOverlapping(viewRect);
     
+    if(zoom < densityZoom) {
+      _drawDensity(bufferG, region, transform);
+    }
+    else if(zoom < pointZoom) {
+      bufferG.setStroke(new BasicStroke(0));
+      _drawPlainEdges(bufferG);
+      _drawPoints(bufferG, visible, 3/zoom);
+    }
+    else {
+      // Rank the vertices so that each pair of them knows which one draws the edges between them.
+      int rank = 0;
+      for(VertexSprite vertex : getSprites()) {
+        vertex.drawRank = rank++;
+      }
+      
+      // Draw the edges, batching runs that share a style, color, and thickness. 
+      for(VertexSprite vertex : getSprites()) {
+        vertex.drawEdges(bufferG, edgeBatch);
+      }
+      edgeBatch.flush(bufferG);
+      collapsedEdges = null;
+      
+      // Draw the vertices.
+      for(VertexSprite vertex : visible) {
+        vertex.render(bufferG);
+      }
+    }
+    
+    viewRect = null;
+    drawingLabels = true;
     bufferG.dispose();
-    g.drawImage(drawBuffer, 0, 0, null);
-    g.setTransform(origT);
+  }
+  
+  
+  /** Returns true iff labels are being drawn at the current zoom. */
+  boolean isDrawingLabels() {
+    return drawingLabels;
+  }
+  
+  
+  /** 
+   * Records that an edge redirected from collapsed vertices has been drawn 
+   * between two visible vertices. Returns false if one was already drawn 
+   * between them this frame.
+   */
+  boolean markCollapsedEdge(VertexSprite v1, VertexSprite v2) {
+    if(collapsedEdges == null) {
+      collapsedEdges = new HashSet<>();
+    }
+    long lo = Math.min(v1.drawRank, v2.drawRank);
+    long hi = Math.max(v1.drawRank, v2.drawRank);
+    return collapsedEdges.add((hi << 32) | lo);
+  }
+  
+  
+  /** Returns true iff the edge between two vertices could overlap the region being drawn. */
+  boolean isEdgeInView(VertexSprite v1, VertexSprite v2) {
+    if(viewRect == null) {
+      return true;
+    }
+    return Math.max(v1.x, v2.x) >= viewRect.getMinX() && Math.min(v1.x, v2.x) <= viewRect.getMaxX() 
+        && Math.max(v1.y, v2.y) >= viewRect.getMinY() && Math.min(v1.y, v2.y) <= viewRect.getMaxY();
+  }
+  
+  
+  /** 
+   * Draws each visible edge as a line between the centers of its vertices, 
+   * or of their first visible ancestors if they're collapsed. 
+   */
+  private void _drawPlainEdges(Graphics2D g) {
+    Line2D line = new Line2D.Double();
+    for(VertexSprite vertex : getSprites()) {
+      VertexSprite from = vertex.isVisible() ? vertex : vertex.getFirstVisible();
+      if(from == null) {
+        continue;
+      }
+      
+      for(String otherID : vertex.getEdges()) {
+        VertexSprite to = getSprite(otherID);
+        if(to != null && !to.isVisible()) {
+          to = to.getFirstVisible();
+        }
+        if(to == null || to == from || !isEdgeInView(from, to)) {
+          continue;
+        }
+        
+        g.setColor(style.getEdgeColor(from, to));
+        line.setLine(from.x, from.y, to.x, to.y);
+        g.draw(line);
+      }
+    }
+  }
+  
+  
+  /** Draws each vertex as a filled square of the given size, in graph coordinates. */
+  private void _drawPoints(Graphics2D g, List<VertexSprite> vertices, double size) {
+    Rectangle2D point = new Rectangle2D.Double();
+    for(VertexSprite vertex : vertices) {
+      if(vertex.isVisible()) {
+        g.setColor(style.getVertexStrokeColor(vertex));
+        point.setRect(vertex.x - size/2, vertex.y - size/2, size, size);
+        g.fill(point);
+      }
+    }
+  }
+  
+  
+  /** 
+   * Draws the graph as a density map with blocks of DENSITY_CELL pixels. 
+   * Each block is shaded by the number of edges passing through it, and 
+   * blocks containing a vertex are filled with the vertex's color. 
+   * The map is drawn as a single image, so the cost doesn't depend on how 
+   * many edges overlap.
+   */
+  private void _drawDensity(Graphics2D g, Rectangle region, AffineTransform transform) {
+    int cols = (region.width + DENSITY_CELL - 1)/DENSITY_CELL;
+    int rows = (region.height + DENSITY_CELL - 1)/DENSITY_CELL;
+    if(cols <= 0 || rows <= 0) {
+      return;
+    }
+    int[] edgeCounts = new int[cols*rows];
+    int[] pixels = new int[cols*rows];
+    Color edgeColor = null;
+    
+    // Step each edge through the blocks it crosses.
+    double[] ends = new double[4];
+    for(VertexSprite vertex : getSprites()) {
+      VertexSprite from = vertex.isVisible() ? vertex : vertex.getFirstVisible();
+      if(from == null) {
+        continue;
+      }
+      
+      for(String otherID : vertex.getEdges()) {
+        VertexSprite to = getSprite(otherID);
+        if(to != null && !to.isVisible()) {
+          to = to.getFirstVisible();
+        }
+        if(to == null || to == from || !isEdgeInView(from, to)) {
+          continue;
+        }
+        if(edgeColor == null) {
+          edgeColor = style.getEdgeColor(from, to);
+        }
+        
+        ends[0] = from.x;
+        ends[1] = from.y;
+        ends[2] = to.x;
+        ends[3] = to.y;
+        transform.transform(ends, 0, ends, 0, 2);
+        _stepEdge(edgeCounts, cols, rows, 
+            (ends[0] - region.x)/DENSITY_CELL, (ends[1] - region.y)/DENSITY_CELL, 
+            (ends[2] - region.x)/DENSITY_CELL, (ends[3] - region.y)/DENSITY_CELL);
+      }
+    }
+    
+    // Shade the blocks by edge count.
+    if(edgeColor != null) {
+      int rgb = edgeColor.getRGB() & 0xFFFFFF;
+      int alpha = edgeColor.getAlpha();
+      for(int i = 0; i < pixels.length; i++) {
+        if(edgeCounts[i] > 0) {
+          int a = (int) (alpha*Math.min(1.0, 0.25*edgeCounts[i]));
+          pixels[i] = (Math.max(1, a) << 24) | rgb;
+        }
+      }
+    }
+    
+    // Fill the blocks containing vertices.
+    double[] center = new double[2];
+    for(VertexSprite vertex : getSprites()) {
+      if(!vertex.isVisible()) {
+        continue;
+      }
+      center[0] = vertex.x;
+      center[1] = vertex.y;
+      transform.transform(center, 0, center, 0, 1);
+      int col = (int) Math.floor((center[0] - region.x)/DENSITY_CELL);
+      int row = (int) Math.floor((center[1] - region.y)/DENSITY_CELL);
+      if(col >= 0 && col < cols && row >= 0 && row < rows) {
+        pixels[row*cols + col] = style.getVertexStrokeColor(vertex).getRGB() | 0xFF000000;
+      }
+    }
+    
+    BufferedImage map = new BufferedImage(cols, rows, BufferedImage.TYPE_INT_ARGB);
+    map.setRGB(0, 0, cols, rows, pixels, 0, cols);
+    g.setTransform(new AffineTransform());
+    g.drawImage(map, region.x, region.y, cols*DENSITY_CELL, rows*DENSITY_CELL, null);
+    g.setTransform(transform);
+  }
+  
+  
+  /** 
+   * Increments the count of each block crossed by a line, given in block 
+   * coordinates. Blocks outside the grid are skipped.
+   */
+  private static void _stepEdge(int[] counts, int cols, int rows, double x0, double y0, double x1, double y1) {
+    // Clip the line to the grid so that long edges don't step through blocks that aren't there.
+    double t0 = 0;
+    double t1 = 1;
+    double dx = x1 - x0;
+    double dy = y1 - y0;
+    double[] p = {-dx, dx, -dy, dy};
+    double[] q = {x0, cols - x0, y0, rows - y0};
+    for(int i = 0; i < 4; i++) {
+      if(p[i] == 0) {
+        if(q[i] < 0) {
+          return;
+        }
+      }
+      else {
+        double t = q[i]/p[i];
+        if(p[i] < 0) {
+          t0 = Math.max(t0, t);
+        }
+        else {
+          t1 = Math.min(t1, t);
+        }
+      }
+    }
+    if(t0 > t1) {
+      return;
+    }
+    
+    double sx = x0 + t0*dx;
+    double sy = y0 + t0*dy;
+    int steps = (int) Math.ceil(Math.max(Math.abs(dx), Math.abs(dy))*(t1 - t0)) + 1;
+    double stepX = dx*(t1 - t0)/steps;
+    double stepY = dy*(t1 - t0)/steps;
+    int last = -1;
+    for(int i = 0; i <= steps; i++) {
+      int col = (int) (sx + stepX*i);
+      int row = (int) (sy + stepY*i);
+      if(col >= 0 && col < cols && row >= 0 && row < rows) {
+        int block = row*cols + col;
+        if(block != last) {
+          counts[block]++;
+          last = block;
+        }
+      }
+    }
+  }
+  
+  
+  /** 
+   * Returns the region of the back buffer, in device coordinates, covering 
+   * the vertices that moved since the last frame and their edges, at both 
+   * their old and new positions. The region is empty if nothing moved.
+   * Returns null if it would be simpler to redraw everything, such as 
+   * when many vertices moved, a vertex hasn't been drawn yet, or a moved 
+   * vertex has nested or labeled edges.
+   */
+  private Rectangle _getDirtyRegion(AffineTransform transform) {
+    Rectangle2D region = null;
+    int moved = 0;
+    
+    for(VertexSprite vertex : getSprites()) {
+      if(vertex.x == vertex.drawnX && vertex.y == vertex.drawnY) {
+        continue;
+      }
+      
+      // A vertex that has never been drawn has no old position to clear from.
+      if(Double.isNaN(vertex.drawnX) || Double.isNaN(vertex.drawnY)) {
+        return null;
+      }
+      moved++;
+      if(moved > MAX_DIRTY_VERTICES || vertex.getParent() != null || !vertex.getChildren().isEmpty()) {
+        return null;
+      }
+      
+      Dimension2D dims = vertex.getDimensions();
+      Rectangle2D box = new Rectangle2D.Double(vertex.x - dims.getWidth()/2, vertex.y - dims.getHeight()/2, dims.getWidth(), dims.getHeight());
+      box.add(new Rectangle2D.Double(vertex.drawnX - dims.getWidth()/2, vertex.drawnY - dims.getHeight()/2, dims.getWidth(), dims.getHeight()));
+      
+      for(String otherID : vertex.getNeighbors()) {
+        VertexSprite other = getSprite(otherID);
+        if(other == null || other.getParent() != null || vertex.getEdgeLabel(otherID) != null || other.getEdgeLabel(vertex.getID()) != null) {
+          return null;
+        }
+        box.add(other.x, other.y);
+        box.add(other.drawnX, other.drawnY);
+      }
+      
+      if(region == null) {
+        region = box;
+      }
+      else {
+        region.add(box);
+      }
+    }
+    
+    if(region == null) {
+      return new Rectangle();
+    }
+    region.setRect(region.getX() - DIRTY_PADDING, region.getY() - DIRTY_PADDING, region.getWidth() + DIRTY_PADDING*2, region.getHeight() + DIRTY_PADDING*2);
+    Rectangle bounds = transform.createTransformedShape(region).getBounds();
+    bounds.grow(2, 2);
+    return bounds;
   }
   
   
@@ -432,6 +953,7 @@ public class GraphSprite extends Sprite {
     }
     
     this.style = style;
+    invalidate();
   }
   
 }
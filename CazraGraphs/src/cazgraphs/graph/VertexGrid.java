@@ -0,0 +1,280 @@
+package cazgraphs.graph;
+
+import java.awt.geom.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A uniform grid over the bounding boxes of a graph's vertex sprites, in
+ * graph coordinates, used to find the vertices near a point or inside a
+ * rectangle without testing every vertex. Each vertex is filed in every
+ * cell its box overlaps. The cell size is chosen from the average vertex
+ * size when the grid is built, so a cell typically holds only a few vertices.
+ */
+public class VertexGrid {
+
+  /** The width and height of each cell. */
+  private double cellSize;
+
+  /** The entries overlapping each occupied cell, keyed by the cell's packed coordinates. */
+  private Map<Long, List<Entry>> cells = new HashMap<>();
+
+  /** The entry for each vertex sprite. */
+  private Map<VertexSprite, Entry> entries;
+
+  /** The largest half-width or half-height of any vertex filed so far. */
+  private double maxExtent = 0;
+
+
+  /**
+   * Builds the grid for a collection of vertex sprites. The sprites' order
+   * in the collection is their drawing order, so later sprites are on top.
+   */
+  public VertexGrid(Collection<VertexSprite> sprites) {
+    entries = new HashMap<>(sprites.size()*2);
+
+    // Size the cells to fit an average vertex.
+    double total = 0;
+    int count = 0;
+    for(VertexSprite sprite : sprites) {
+      Dimension2D dims = sprite.getDimensions();
+      if(dims.getWidth() > 0 || dims.getHeight() > 0) {
+        total += Math.max(dims.getWidth(), dims.getHeight());
+        count++;
+      }
+    }
+    cellSize = (count == 0) ? 64 : Math.max(1, 2*total/count);
+
+    int rank = 0;
+    for(VertexSprite sprite : sprites) {
+      Entry entry = new Entry(sprite, rank++);
+      entries.put(sprite, entry);
+      _insert(entry);
+    }
+  }
+
+
+  /** Returns the number of vertices in the grid. */
+  public int size() {
+    return entries.size();
+  }
+
+  /** Returns an upper bound on the half-width and half-height of the vertices' boxes. */
+  public double getMaxExtent() {
+    return maxExtent;
+  }
+
+
+  /**
+   * Refiles a vertex after it has moved. Returns false if the vertex isn't
+   * in the grid, in which case the grid needs to be rebuilt.
+   */
+  public boolean update(VertexSprite sprite) {
+    Entry entry = entries.get(sprite);
+    if(entry == null) {
+      return false;
+    }
+
+    _remove(entry);
+    entry.setBox();
+    _insert(entry);
+    return true;
+  }
+
+
+  /**
+   * Returns the topmost vertex whose shape contains a point. The point is
+   * given both in graph coordinates, to find the cell, and in view
+   * coordinates, for the vertex's exact containsPoint test. If viewP is
+   * null, only the vertices' boxes are tested.
+   * Returns null if no vertex contains the point.
+   */
+  public VertexSprite getVertexAt(Point2D graphP, Point2D viewP) {
+    List<Entry> cell = cells.get(_key(_cell(graphP.getX()), _cell(graphP.getY())));
+    if(cell == null) {
+      return null;
+    }
+
+    Entry top = null;
+    for(Entry entry : cell) {
+      if((top == null || entry.rank > top.rank) && entry.contains(graphP.getX(), graphP.getY()) && entry.sprite.isVisible() && (viewP == null || entry.sprite.containsPoint(viewP))) {
+        top = entry;
+      }
+    }
+    return (top == null) ? null : top.sprite;
+  }
+
+
+  /**
+   * Returns the vertices whose boxes overlap a rectangle, in graph
+   * coordinates, in drawing order.
+   */
+  public List<VertexSprite> getVerticesOverlapping(Rectangle2D rect) {
+    List<Entry> found = new ArrayList<>();
+    int minCX = _cell(rect.getMinX());
+    int minCY = _cell(rect.getMinY());
+    int maxCX = _cell(rect.getMaxX());
+    int maxCY = _cell(rect.getMaxY());
+
+    long area = ((long) maxCX - minCX + 1) * ((long) maxCY - minCY + 1);
+    if(area > cells.size()) {
+      for(Entry entry : entries.values()) {
+        if(entry.overlaps(rect)) {
+          found.add(entry);
+        }
+      }
+    }
+    else {
+      for(int cx = minCX; cx <= maxCX; cx++) {
+        for(int cy = minCY; cy <= maxCY; cy++) {
+          List<Entry> cell = cells.get(_key(cx, cy));
+          if(cell == null) {
+            continue;
+          }
+
+          // Each vertex is reported only from the first of its cells inside the rectangle.
+          for(Entry entry : cell) {
+            if(cx == Math.max(entry.minCX, minCX) && cy == Math.max(entry.minCY, minCY) && entry.overlaps(rect)) {
+              found.add(entry);
+            }
+          }
+        }
+      }
+    }
+
+    found.sort((a, b) -> Integer.compare(a.rank, b.rank));
+    List<VertexSprite> result = new ArrayList<>(found.size());
+    for(Entry entry : found) {
+      result.add(entry.sprite);
+    }
+    return result;
+  }
+
+
+  /** Returns the vertices whose centers lie in a rectangle, in graph coordinates. */
+  public List<VertexSprite> getVerticesInRect(Rectangle2D rect) {
+    List<VertexSprite> result = new ArrayList<>();
+    int minCX = _cell(rect.getMinX());
+    int minCY = _cell(rect.getMinY());
+    int maxCX = _cell(rect.getMaxX());
+    int maxCY = _cell(rect.getMaxY());
+
+    // If the rectangle covers more cells than are occupied, scanning the
+    // occupied cells is cheaper.
+    long area = ((long) maxCX - minCX + 1) * ((long) maxCY - minCY + 1);
+    if(area > cells.size()) {
+      for(Entry entry : entries.values()) {
+        if(rect.contains(entry.x, entry.y)) {
+          result.add(entry.sprite);
+        }
+      }
+      return result;
+    }
+
+    for(int cx = minCX; cx <= maxCX; cx++) {
+      for(int cy = minCY; cy <= maxCY; cy++) {
+        List<Entry> cell = cells.get(_key(cx, cy));
+        if(cell == null) {
+          continue;
+        }
+
+        // Each vertex is reported only from the cell containing its center.
+        for(Entry entry : cell) {
+          if(entry.centerCX == cx && entry.centerCY == cy && rect.contains(entry.x, entry.y)) {
+            result.add(entry.sprite);
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+
+  //////// Cells
+
+  /** Returns the cell coordinate containing a graph coordinate. */
+  private int _cell(double coord) {
+    double c = Math.floor(coord/cellSize);
+    return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, c));
+  }
+
+  /** Packs a pair of cell coordinates into a map key. */
+  private static long _key(int cx, int cy) {
+    return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+  }
+
+  /** Files an entry in every cell its box overlaps. */
+  private void _insert(Entry entry) {
+    entry.minCX = _cell(entry.x - entry.halfW);
+    entry.minCY = _cell(entry.y - entry.halfH);
+    entry.maxCX = _cell(entry.x + entry.halfW);
+    entry.maxCY = _cell(entry.y + entry.halfH);
+    entry.centerCX = _cell(entry.x);
+    entry.centerCY = _cell(entry.y);
+    maxExtent = Math.max(maxExtent, Math.max(entry.halfW, entry.halfH));
+
+    for(int cx = entry.minCX; cx <= entry.maxCX; cx++) {
+      for(int cy = entry.minCY; cy <= entry.maxCY; cy++) {
+        cells.computeIfAbsent(_key(cx, cy), key -> new ArrayList<>(4)).add(entry);
+      }
+    }
+  }
+
+  /** Removes an entry from the cells it was filed in. */
+  private void _remove(Entry entry) {
+    for(int cx = entry.minCX; cx <= entry.maxCX; cx++) {
+      for(int cy = entry.minCY; cy <= entry.maxCY; cy++) {
+        long key = _key(cx, cy);
+        List<Entry> cell = cells.get(key);
+        if(cell != null) {
+          cell.remove(entry);
+          if(cell.isEmpty()) {
+            cells.remove(key);
+          }
+        }
+      }
+    }
+  }
+
+
+  /** A vertex sprite's box as it was filed in the grid. */
+  private static class Entry {
+
+    VertexSprite sprite;
+
+    /** The sprite's position in the drawing order. */
+    int rank;
+
+    /** The center and half-dimensions of the sprite's box. */
+    double x, y, halfW, halfH;
+
+    /** The range of cells the box overlaps, and the cell containing its center. */
+    int minCX, minCY, maxCX, maxCY, centerCX, centerCY;
+
+    Entry(VertexSprite sprite, int rank) {
+      this.sprite = sprite;
+      this.rank = rank;
+      setBox();
+    }
+
+    /** Records the sprite's current box. */
+    void setBox() {
+      Dimension2D dims = sprite.getDimensions();
+      x = sprite.x;
+      y = sprite.y;
+      halfW = dims.getWidth()/2;
+      halfH = dims.getHeight()/2;
+    }
+
+    boolean contains(double px, double py) {
+      return Math.abs(px - x) <= halfW && Math.abs(py - y) <= halfH;
+    }
+
+    boolean overlaps(Rectangle2D rect) {
+      return x + halfW >= rect.getMinX() && x - halfW <= rect.getMaxX() && y + halfH >= rect.getMinY() && y - halfH <= rect.getMaxY();
+    }
+  }
+}
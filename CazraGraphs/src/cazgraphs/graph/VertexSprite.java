@@ -55,6 +55,21 @@ public class VertexSprite extends Sprite implements Comparable<VertexSprite>, To
   /** Whether this sprite is expanded to reveal nested sprites. */
   private boolean isExpanded = true;
   
+  /** The graph's nesting epoch when the cached nesting state below was computed. */
+  private int nestingEpoch = -1;
+  
+  /** The cached results of isExpanded, isVisible, and getFirstVisible. */
+  private boolean expandedCache;
+  private boolean visibleCache;
+  private VertexSprite firstVisibleCache;
+  
+  /** The position this vertex was at when its graph was last drawn. */
+  double drawnX = Double.NaN;
+  double drawnY = Double.NaN;
+  
+  /** This vertex's position in its graph's drawing order, set before the graph's edges are drawn. */
+  int drawRank = 0;
+  
   /**
    * Creates a vertex sprite at the origin repesenting the vertex in the graph 
    * with the specified ID.
@@ -187,6 +202,7 @@ public class VertexSprite extends Sprite implements Comparable<VertexSprite>, To
     if(graph.hasEdge(this.id, otherID)) {
       edgeLabels.put(otherID, label);
     }
+    graph.invalidate();
   }
   
   
@@ -245,12 +261,14 @@ public class VertexSprite extends Sprite implements Comparable<VertexSprite>, To
   
   /** Returns true iff this sprite and its ancestors are expanded. */
   public boolean isExpanded() {
-    return isExpanded && (parent == null || parent.isExpanded());
+    _refreshNesting();
+    return expandedCache;
   }
   
   /** Set whether this sprite is expanded. */
   public void setExpanded(boolean isExpanded) {
     this.isExpanded = isExpanded;
+    graph.invalidateNesting();
   }
   
   /** 
@@ -274,6 +292,7 @@ public class VertexSprite extends Sprite implements Comparable<VertexSprite>, To
     
     v.parent = this;
     this.children.add(v);
+    graph.invalidateNesting();
   }
   
   /** Nests a set of sprites below this one. */
@@ -289,6 +308,7 @@ public class VertexSprite extends Sprite implements Comparable<VertexSprite>, To
       v.parent = null;
       this.children.remove(v);
     }
+    graph.invalidateNesting();
   }
   
   /** Unnests a set of sprites below this one. */
@@ -304,6 +324,7 @@ public class VertexSprite extends Sprite implements Comparable<VertexSprite>, To
       v.parent = null;
     }
     children.clear();
+    graph.invalidateNesting();
   }
   
   /** 
@@ -311,15 +332,32 @@ public class VertexSprite extends Sprite implements Comparable<VertexSprite>, To
    * nesting chain. Returns null if one can't be found.
    */
   public VertexSprite getFirstVisible() {
-    VertexSprite v = this;
-    while(v != null) {
-      if(v.isVisible()) {
-        break;
-      }
-      
-      v = v.parent;
+    _refreshNesting();
+    return firstVisibleCache;
+  }
+  
+  /** 
+   * Recomputes the cached nesting state if the nesting has changed since it 
+   * was last computed. Each sprite's state follows from its parent's, so 
+   * this costs O(1) per sprite each time the nesting changes.
+   */
+  private void _refreshNesting() {
+    if(nestingEpoch == graph.nestingEpoch) {
+      return;
     }
-    return v;
+    
+    boolean parentExpanded = true;
+    VertexSprite parentFirstVisible = null;
+    if(parent != null) {
+      parent._refreshNesting();
+      parentExpanded = parent.expandedCache;
+      parentFirstVisible = parent.firstVisibleCache;
+    }
+    
+    expandedCache = isExpanded && parentExpanded;
+    visibleCache = isVisible && parentExpanded;
+    firstVisibleCache = visibleCache ? this : parentFirstVisible;
+    nestingEpoch = graph.nestingEpoch;
   }
   
   
@@ -386,6 +424,11 @@ public class VertexSprite extends Sprite implements Comparable<VertexSprite>, To
     this.physics = physics;
   }
   
+  /** Returns the layout physics object for this vertex. */
+  public LayoutPhysics getPhysics() {
+    return physics;
+  }
+  
   /** Returns the value of some physics property of this vertex. */
   public double getPhysicsProp(int code) {
     return physics.getProp(code);
@@ -408,13 +451,22 @@ public class VertexSprite extends Sprite implements Comparable<VertexSprite>, To
   /** Sets whether this node is currently selected. */
   public void setSelected(boolean selected) {
     isSelected = selected;
+    graph.invalidateImage();
   }
   
   
   //////// Rendering
   
   public boolean isVisible() {
-    return isVisible && (parent == null || parent.isExpanded());
+    _refreshNesting();
+    return visibleCache;
+  }
+  
+  public void setVisible(boolean isVisible) {
+    super.setVisible(isVisible);
+    if(graph != null) {
+      graph.invalidateNesting();
+    }
   }
   
   
@@ -426,7 +478,9 @@ public class VertexSprite extends Sprite implements Comparable<VertexSprite>, To
     
     g.setColor(new Color(0xAA0000));
     getStyle().draw(g, this);
-    label.draw(g);
+    if(graph.isDrawingLabels()) {
+      label.draw(g);
+    }
   }
   
   
@@ -436,11 +490,21 @@ public class VertexSprite extends Sprite implements Comparable<VertexSprite>, To
    * transform.
    */
   public void drawEdges(Graphics2D g, Set<String> drawnEdges) {
+    drawEdges(g, drawnEdges, null);
+  }
+  
+  
+  /** 
+   * Draws the outward edges of this node, adding those with batchable 
+   * styles to a batch instead of drawing them directly. The batch must be 
+   * flushed afterwards. If batch is null, every edge is drawn directly.
+   */
+  public void drawEdges(Graphics2D g, Set<String> drawnEdges, EdgeBatch batch) {
     if(!isVisible()) {
       VertexSprite visibleAncestor = getFirstVisible();
       if(visibleAncestor != null) {
         for(String otherID : getEdges()) {
-          visibleAncestor.drawEdge(g, drawnEdges, otherID);
+          visibleAncestor.drawEdge(g, drawnEdges, batch, otherID);
         }
       }
       
@@ -448,13 +512,13 @@ public class VertexSprite extends Sprite implements Comparable<VertexSprite>, To
     }
   
     for(String otherID : getEdges()) {
-      drawEdge(g, drawnEdges, otherID);
+      drawEdge(g, drawnEdges, batch, otherID);
     }
   }
   
   
   /** Draws the edge between this node and another node if the edge hasn't been drawn yet. */
-  private void drawEdge(Graphics2D g, Set<String> drawnEdges, String otherID) {
+  private void drawEdge(Graphics2D g, Set<String> drawnEdges, EdgeBatch batch, String otherID) {
     
     VertexSprite other = graph.getSprite(otherID);
     if(other == null) {
@@ -463,19 +527,87 @@ public class VertexSprite extends Sprite implements Comparable<VertexSprite>, To
     else if(!other.isVisible()) {
       other = other.getFirstVisible();
       if(other != this) {
-        drawEdge(g, drawnEdges, other.getID());
+        drawEdge(g, drawnEdges, batch, other.getID());
       }
       return;
     }
     
     
+    // Skip edges outside the region being drawn.
+    if(!graph.isEdgeInView(this, other)) {
+      return;
+    }
+    
     String edgeKey = graph.getEdgeID(this.id, otherID);
     
     if(!drawnEdges.contains(edgeKey)) {
-      EdgeStyle edgeStyle = graph.getStyle().getEdgeStyle(this, other);
-      edgeStyle.setLabel(edgeLabels.get(otherID));
-      
       drawnEdges.add(edgeKey);
+      _drawEdgeTo(g, batch, other);
+    }
+  }
+  
+  
+  /** 
+   * Draws the outward edges of this node, drawing each pair of vertices' 
+   * edges only once without keeping track of the edges drawn. The edges 
+   * between two vertices are drawn by whichever comes first in the graph's 
+   * drawing order, so drawRank must be set on every vertex beforehand.
+   */
+  void drawEdges(Graphics2D g, EdgeBatch batch) {
+    VertexSprite from = isVisible() ? this : getFirstVisible();
+    if(from == null) {
+      return;
+    }
+    
+    for(String otherID : getEdges()) {
+      VertexSprite other = graph.getSprite(otherID);
+      if(other == null) {
+        continue;
+      }
+      
+      boolean collapsed = (from != this);
+      if(!other.isVisible()) {
+        other = other.getFirstVisible();
+        if(other == null || other == from) {
+          continue;
+        }
+        collapsed = true;
+      }
+      
+      if(!graph.isEdgeInView(from, other)) {
+        continue;
+      }
+      
+      if(!collapsed) {
+        // If the edge goes both ways, the vertex ranked first draws it.
+        if(other.drawRank < drawRank && other.getEdges().contains(id)) {
+          continue;
+        }
+      }
+      else if(from.getEdges().contains(other.id) || other.getEdges().contains(from.id) || !graph.markCollapsedEdge(from, other)) {
+        // Edges between the visible vertices themselves take precedence over redirected ones.
+        continue;
+      }
+      
+      from._drawEdgeTo(g, batch, other);
+    }
+  }
+  
+  
+  /** Draws the edge from this node to another, or adds it to the batch if its style allows. */
+  private void _drawEdgeTo(Graphics2D g, EdgeBatch batch, VertexSprite other) {
+    EdgeStyle edgeStyle = graph.getStyle().getEdgeStyle(this, other);
+    edgeStyle.setLabel(graph.isDrawingLabels() ? edgeLabels.get(other.id) : null);
+    
+    if(batch != null && edgeStyle.isBatchable()) {
+      GraphStyle style = graph.getStyle();
+      batch.add(g, edgeStyle, this, other, style.getEdgeColor(this, other), style.getEdgeThickness(this, other));
+    }
+    else {
+      // Draw the batched edges first so that the edges stay in order.
+      if(batch != null) {
+        batch.flush(g);
+      }
       edgeStyle.draw(g, this, other);
     }
   }
@@ -0,0 +1,307 @@
+package cazgraphs.graph.layout;
+
+import java.util.Arrays;
+
+/**
+ * A quadtree over a set of point masses, used to approximate inverse-square
+ * repulsion in O(n log n) time with the Barnes-Hut method.
+ * Each cell stores the total mass and center of mass of the bodies inside it.
+ * When computing the field at a body, a cell that is far enough away
+ * (its width divided by its distance is less than theta) is treated as a
+ * single body at its center of mass.
+ * The tree's storage is kept in flat arrays that are reused between builds.
+ */
+public class BarnesHutTree {
+
+  /**
+   * Cells at this depth are never split. Bodies at (nearly) the same
+   * position all end up in the same leaf instead.
+   */
+  private static final int MAX_DEPTH = 24;
+
+  /** The minimum distance squared used in the force computations. */
+  private static final double MIN_DIST_SQ = 32*32;
+
+
+  // Bodies
+
+  private double[] bodyX = new double[0];
+  private double[] bodyY = new double[0];
+  private double[] bodyMass = new double[0];
+
+  /** The next body in the same leaf, or -1. */
+  private int[] bodyNext = new int[0];
+
+  private int numBodies = 0;
+
+
+  // Cells
+
+  private double[] cellMinX = new double[16];
+  private double[] cellMinY = new double[16];
+  private double[] cellSize = new double[16];
+  private double[] cellMass = new double[16];
+
+  /** Mass-weighted sums of the bodies' positions, and later their center of mass. */
+  private double[] cellCX = new double[16];
+  private double[] cellCY = new double[16];
+
+  /** Index of the first of a cell's 4 consecutive children, or 0 if the cell is a leaf. */
+  private int[] cellChild = new int[16];
+
+  /** The first body in a leaf cell, or -1 if the leaf is empty. */
+  private int[] cellBody = new int[16];
+
+  private int[] cellDepth = new int[16];
+
+  private int numCells = 0;
+
+  /** Work stack used by computeField when the caller doesn't provide one. */
+  private int[] stack = newWorkStack();
+
+
+
+  /**
+   * Rebuilds the tree for a set of bodies. Only the first count entries of
+   * the arrays are used.
+   */
+  public void build(double[] xs, double[] ys, double[] masses, int count) {
+    _ensureBodyCapacity(count);
+    numBodies = count;
+
+    double minX = Double.POSITIVE_INFINITY;
+    double minY = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY;
+    double maxY = Double.NEGATIVE_INFINITY;
+    for(int i = 0; i < count; i++) {
+      bodyX[i] = xs[i];
+      bodyY[i] = ys[i];
+      bodyMass[i] = masses[i];
+      bodyNext[i] = -1;
+
+      minX = Math.min(minX, xs[i]);
+      minY = Math.min(minY, ys[i]);
+      maxX = Math.max(maxX, xs[i]);
+      maxY = Math.max(maxY, ys[i]);
+    }
+
+    // The root is a square cell enclosing all the bodies.
+    numCells = 0;
+    double size = Math.max(1, Math.max(maxX - minX, maxY - minY)) * 1.0001;
+    _newCell(count == 0 ? 0 : minX, count == 0 ? 0 : minY, size, 0);
+
+    for(int i = 0; i < count; i++) {
+      _insert(i);
+    }
+
+    // Convert the weighted position sums into centers of mass.
+    for(int c = 0; c < numCells; c++) {
+      if(cellMass[c] > 0) {
+        cellCX[c] /= cellMass[c];
+        cellCY[c] /= cellMass[c];
+      }
+    }
+  }
+
+
+  /**
+   * Computes the inverse-square field acting on a body from all the other
+   * bodies: the sum of m * (other - body) / dist^3, with dist clamped to
+   * at least 32.
+   * @param body    The index of the body.
+   * @param theta   The accuracy parameter. 0 computes the field exactly.
+   * @param result  Receives the x and y components of the field at
+   *                indices 0 and 1, and the number of other bodies
+   *                sharing this body's exact position at index 2.
+   */
+  public void computeField(int body, double theta, double[] result) {
+    computeField(body, theta, result, stack);
+  }
+
+
+  /** 
+   * A version of computeField that uses a caller-provided work stack from 
+   * newWorkStack(). Once the tree is built, threads that each use their own 
+   * work stack and result array may call this concurrently.
+   */
+  public void computeField(int body, double theta, double[] result, int[] stack) {
+    double x = bodyX[body];
+    double y = bodyY[body];
+    double theta2 = theta*theta;
+
+    double fx = 0;
+    double fy = 0;
+    int coincident = 0;
+
+    int top = 0;
+    stack[top++] = 0;
+    while(top > 0) {
+      int c = stack[--top];
+      if(cellMass[c] == 0) {
+        continue;
+      }
+
+      if(cellChild[c] == 0) {
+        // Leaf: add each of its bodies exactly.
+        for(int b = cellBody[c]; b != -1; b = bodyNext[b]) {
+          if(b == body) {
+            continue;
+          }
+          double dx = bodyX[b] - x;
+          double dy = bodyY[b] - y;
+          if(dx == 0 && dy == 0) {
+            coincident++;
+            continue;
+          }
+          double dist2 = Math.max(MIN_DIST_SQ, dx*dx + dy*dy);
+          double scale = bodyMass[b] / (dist2 * Math.sqrt(dist2));
+          fx += dx*scale;
+          fy += dy*scale;
+        }
+        continue;
+      }
+
+      double dx = cellCX[c] - x;
+      double dy = cellCY[c] - y;
+      double d2 = dx*dx + dy*dy;
+
+      if(cellSize[c]*cellSize[c] < theta2*d2) {
+        // Far enough away to treat the whole cell as one body.
+        double dist2 = Math.max(MIN_DIST_SQ, d2);
+        double scale = cellMass[c] / (dist2 * Math.sqrt(dist2));
+        fx += dx*scale;
+        fy += dy*scale;
+      }
+      else {
+        int first = cellChild[c];
+        stack[top++] = first;
+        stack[top++] = first + 1;
+        stack[top++] = first + 2;
+        stack[top++] = first + 3;
+      }
+    }
+
+    result[0] = fx;
+    result[1] = fy;
+    result[2] = coincident;
+  }
+
+
+
+  /** 
+   * Creates a work stack for computeField. Each popped cell pushes at most 
+   * 4 children, and cells are only split MAX_DEPTH times, so the stack 
+   * never needs to grow.
+   */
+  public int[] newWorkStack() {
+    return new int[4*MAX_DEPTH + 4];
+  }
+
+
+  /** Inserts a body into the tree, splitting leaves as needed. */
+  private void _insert(int body) {
+    double x = bodyX[body];
+    double y = bodyY[body];
+    double m = bodyMass[body];
+
+    int c = 0;
+    while(true) {
+      cellMass[c] += m;
+      cellCX[c] += m*x;
+      cellCY[c] += m*y;
+
+      if(cellChild[c] != 0) {
+        c = cellChild[c] + _quadrant(c, x, y);
+        continue;
+      }
+
+      // An empty leaf, or a leaf that can't be split any further, takes the body.
+      int other = cellBody[c];
+      if(other == -1 || cellDepth[c] >= MAX_DEPTH || (bodyX[other] == x && bodyY[other] == y)) {
+        bodyNext[body] = other;
+        cellBody[c] = body;
+        return;
+      }
+
+      // Split the leaf and push its bodies down into the new children.
+      _split(c);
+      for(int b = other; b != -1; ) {
+        int next = bodyNext[b];
+        int child = cellChild[c] + _quadrant(c, bodyX[b], bodyY[b]);
+        double bm = bodyMass[b];
+        cellMass[child] += bm;
+        cellCX[child] += bm*bodyX[b];
+        cellCY[child] += bm*bodyY[b];
+        bodyNext[b] = cellBody[child];
+        cellBody[child] = b;
+        b = next;
+      }
+      cellBody[c] = -1;
+      c = cellChild[c] + _quadrant(c, x, y);
+    }
+  }
+
+
+  /** Returns which of a cell's 4 children contains a point. */
+  private int _quadrant(int c, double x, double y) {
+    double half = cellSize[c]/2;
+    int q = 0;
+    if(x >= cellMinX[c] + half) {
+      q += 1;
+    }
+    if(y >= cellMinY[c] + half) {
+      q += 2;
+    }
+    return q;
+  }
+
+
+  /** Creates 4 empty children for a leaf cell. */
+  private void _split(int c) {
+    double half = cellSize[c]/2;
+    int depth = cellDepth[c] + 1;
+    int first = _newCell(cellMinX[c], cellMinY[c], half, depth);
+    _newCell(cellMinX[c] + half, cellMinY[c], half, depth);
+    _newCell(cellMinX[c], cellMinY[c] + half, half, depth);
+    _newCell(cellMinX[c] + half, cellMinY[c] + half, half, depth);
+    cellChild[c] = first;
+  }
+
+
+  private int _newCell(double minX, double minY, double size, int depth) {
+    if(numCells == cellMinX.length) {
+      int capacity = numCells*2;
+      cellMinX = Arrays.copyOf(cellMinX, capacity);
+      cellMinY = Arrays.copyOf(cellMinY, capacity);
+      cellSize = Arrays.copyOf(cellSize, capacity);
+      cellMass = Arrays.copyOf(cellMass, capacity);
+      cellCX = Arrays.copyOf(cellCX, capacity);
+      cellCY = Arrays.copyOf(cellCY, capacity);
+      cellChild = Arrays.copyOf(cellChild, capacity);
+      cellBody = Arrays.copyOf(cellBody, capacity);
+      cellDepth = Arrays.copyOf(cellDepth, capacity);
+    }
+
+    int c = numCells++;
+    cellMinX[c] = minX;
+    cellMinY[c] = minY;
+    cellSize[c] = size;
+    cellMass[c] = 0;
+    cellCX[c] = 0;
+    cellCY[c] = 0;
+    cellChild[c] = 0;
+    cellBody[c] = -1;
+    cellDepth[c] = depth;
+    return c;
+  }
+
+
+  private void _ensureBodyCapacity(int count) {
+    if(count > bodyX.length) {
+      bodyX = new double[count];
+      bodyY = new double[count];
+      bodyMass = new double[count];
+      bodyNext = new int[count];
+    }
+  }
+}
@@ -2,15 +2,19 @@ package cazgraphs.graph.layout;
 
 import java.awt.*;
 import java.awt.geom.*;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
 
 import pwnee.*;
 
 import cazgraphs.graph.*;
+import cazgraphs.graph.model.DirectedGraph;
 
 
 
@@ -49,21 +53,82 @@ public class ForceDirectedGraphLayout extends GraphLayout {
   
   public double MAXVELOCITY = 50;
   
+  /** 
+   * Whether to approximate the repulsion between vertices with a Barnes-Hut 
+   * quadtree in O(n log n) time instead of computing it exactly in O(n^2) time.
+   */
+  public boolean useBarnesHut = false;
+  
+  /** 
+   * The accuracy parameter for Barnes-Hut repulsion. A group of vertices is 
+   * approximated by its center of mass when its width divided by its 
+   * distance is less than THETA. 0 is exact. Larger values are faster but 
+   * less accurate.
+   */
+  public double THETA = 0.8;
+  
+  /** 
+   * The number of threads used to compute the layout forces. If this is 
+   * greater than 1, the forces for the vertices are computed in parallel on 
+   * a ForkJoinPool. The results don't depend on how the threads are scheduled.
+   */
+  public int numThreads = 1;
+  
   
   private int visibleSize = 0;
   
+  /** 
+   * The positions, velocities, and masses of the vertices. During a step, 
+   * the vertices' positions are loaded into the store, the forces operate 
+   * on its arrays, and the new positions are copied back to the vertices.
+   */
+  private ParticleStore store = new ParticleStore();
+  
+  /** The vertices in the order of their slots in the store. */
+  private VertexSprite[] sprites = new VertexSprite[0];
+  private ParticleStore.Slot[] slotOrder = new ParticleStore.Slot[0];
+  private int numSprites = 0;
+  
+  /** Whether each slot's vertex is active this step, and the slots of the active vertices. */
+  private boolean[] active = new boolean[0];
+  private int[] activeSlots = new int[0];
+  
+  /** The number of neighbors of each slot's vertex. */
+  private int[] degree = new int[0];
+  
+  /** The slots of each slot's neighbors, stored in rows starting at neighborOffsets[slot]. */
+  private int[] neighborOffsets = new int[1];
+  private int[] neighborSlots = new int[0];
+  private int numNeighbors = 0;
+  
+  /** Quadtree reused between steps for Barnes-Hut repulsion. */
+  private BarnesHutTree repulsionTree = new BarnesHutTree();
+  
+  /** The positions and masses of the active vertices, reused between steps for Barnes-Hut and parallel repulsion. */
+  private double[] activeX = new double[0];
+  private double[] activeY = new double[0];
+  private double[] activeMass = new double[0];
+  
+  /** Per-vertex accelerations accumulated by the parallel force computation. */
+  private double[] accelX = new double[0];
+  private double[] accelY = new double[0];
+  private boolean[] coincident = new boolean[0];
   
+  /** The pool used for parallel force computation. Created on demand. */
+  private ForkJoinPool pool = null;
   
-  /** Resets the vertex to have 0 velocity and mass based on the dimensions of its label. */
+  
+  
+  /** Gives the vertex a new slot in the layout's store with 0 velocity and mass based on the dimensions of its label. */
   public void resetPhysics(VertexSprite sprite) {
-    sprite.setPhysics(new ParticlePhysics());
+    sprite.setPhysics(store.allocate());
     updatePhysics(sprite);
   }
   
   /** Updates the mass of the vertex based on the dimensions of its label. */
   public void updatePhysics(VertexSprite sprite) {
     VertexLabel label = sprite.getLabel();
-    setMass(sprite, Math.max(1,label.width * label.height /(32*32)));
+    sprite.setPhysicsProp(ParticlePhysics.MASS, Math.max(1,label.width * label.height /(32*32)));
   }
   
   
@@ -78,12 +143,7 @@ public class ForceDirectedGraphLayout extends GraphLayout {
     if(isPaused()) {
       return;
     }
-    visibleSize = 0;
-    for(VertexSprite vertex : graph.getSprites()) {
-      if(vertex.isActive()) {
-        visibleSize++;
-      }
-    }
+    _loadStore(graph);
     
     // Do physics!
     applyLayoutForces(graph);
@@ -91,51 +151,141 @@ public class ForceDirectedGraphLayout extends GraphLayout {
     // Move the nodes and dampen their velocity.
     moveNodes(graph);
     dampenNodes(graph);
+    
+    _saveStore();
   }
   
   
-  private double getDX(VertexSprite vertex) {
-    return vertex.getPhysicsProp(ParticlePhysics.DX);
-  }
   
-  private double getDY(VertexSprite vertex) {
-    return vertex.getPhysicsProp(ParticlePhysics.DY);
-  }
+  //////// Particle store
   
-  private double getMass(VertexSprite vertex) {
-    return vertex.getPhysicsProp(ParticlePhysics.MASS);
+  /** 
+   * Returns the vertex's slot in this layout's store, giving it a new one 
+   * if it doesn't have one.
+   */
+  private ParticleStore.Slot _slotOf(VertexSprite vertex) {
+    LayoutPhysics physics = vertex.getPhysics();
+    if(physics instanceof ParticleStore.Slot) {
+      ParticleStore.Slot slot = (ParticleStore.Slot) physics;
+      if(slot.getStore() == store && slot.getIndex() >= 0) {
+        return slot;
+      }
+    }
+    resetPhysics(vertex);
+    return (ParticleStore.Slot) vertex.getPhysics();
   }
   
   
-  private void setDX(VertexSprite vertex, double value) {
-    vertex.setPhysicsProp(ParticlePhysics.DX, value);
+  /** 
+   * Puts the graph's vertices into the store's slots in the order of the 
+   * graph's sprites, dropping the slots of removed vertices. Then loads the 
+   * vertices' positions, whether they are active, and their neighbors.
+   */
+  private void _loadStore(GraphSprite graph) {
+    Collection<VertexSprite> all = graph.getSprites();
+    int n = all.size();
+    if(sprites.length < n) {
+      int capacity = Math.max(n, sprites.length*2);
+      sprites = new VertexSprite[capacity];
+      slotOrder = new ParticleStore.Slot[capacity];
+      active = new boolean[capacity];
+      activeSlots = new int[capacity];
+      degree = new int[capacity];
+      neighborOffsets = new int[capacity + 1];
+    }
+    else {
+      Arrays.fill(sprites, n, numSprites, null);
+    }
+    numSprites = n;
+    
+    boolean inOrder = true;
+    int k = 0;
+    for(VertexSprite vertex : all) {
+      ParticleStore.Slot slot = _slotOf(vertex);
+      sprites[k] = vertex;
+      slotOrder[k] = slot;
+      inOrder &= (slot.getIndex() == k);
+      k++;
+    }
+    if(!inOrder || store.size() != n) {
+      store.reorder(slotOrder, n);
+    }
+    Arrays.fill(slotOrder, 0, n, null);
+    
+    double[] x = store.x;
+    double[] y = store.y;
+    visibleSize = 0;
+    for(int i = 0; i < n; i++) {
+      VertexSprite vertex = sprites[i];
+      x[i] = vertex.x;
+      y[i] = vertex.y;
+      active[i] = vertex.isActive();
+      if(active[i]) {
+        activeSlots[visibleSize++] = i;
+      }
+    }
+    
+    // Walk the model's adjacency directly so that no neighbor sets are copied.
+    DirectedGraph model = graph.getGraph();
+    Consumer<String> addNeighbor = otherID -> {
+      neighborSlots[numNeighbors++] = _slotOf(graph.getSprite(otherID)).getIndex();
+    };
+    numNeighbors = 0;
+    for(int i = 0; i < n; i++) {
+      String vertexID = sprites[i].getID();
+      degree[i] = model.getNeighborCount(vertexID);
+      neighborOffsets[i] = numNeighbors;
+      if(neighborSlots.length < numNeighbors + degree[i]) {
+        neighborSlots = Arrays.copyOf(neighborSlots, Math.max(numNeighbors + degree[i], neighborSlots.length*2));
+      }
+      model.forEachNeighbor(vertexID, addNeighbor);
+    }
+    neighborOffsets[n] = numNeighbors;
   }
   
-  private void setDY(VertexSprite vertex, double value) {
-    vertex.setPhysicsProp(ParticlePhysics.DY, value);
+  
+  /** Copies the positions in the store back to the vertices. */
+  private void _saveStore() {
+    double[] x = store.x;
+    double[] y = store.y;
+    for(int i = 0; i < numSprites; i++) {
+      sprites[i].x = x[i];
+      sprites[i].y = y[i];
+    }
   }
   
-  private void setMass(VertexSprite vertex, double value) {
-    vertex.setPhysicsProp(ParticlePhysics.MASS, value);
+  
+  /** Moves a vertex's position in the store slightly, in a different direction each time. */
+  private void _scatter(int i) {
+    store.x[i] += 1*GameMath.cos(scatterAngle);
+    store.y[i] += 1*GameMath.sin(scatterAngle);
+    scatterAngle += 31;
   }
   
   
+  
+  //////// Forces
+  
+  /** Moves the active vertices by their velocities. */
   public void moveNodes(GraphSprite graph) {
-    for(VertexSprite vertex : graph.getSprites()) {
-      if(!vertex.isActive()) {
-        continue;
-      }
-      
-      vertex.x += getDX(vertex);
-      vertex.y += getDY(vertex);
+    double[] x = store.x;
+    double[] y = store.y;
+    double[] dx = store.dx;
+    double[] dy = store.dy;
+    for(int a = 0; a < visibleSize; a++) {
+      int i = activeSlots[a];
+      x[i] += dx[i];
+      y[i] += dy[i];
     }
   }
   
   /** Dampens the velocity of the vertices as if they are moving through a viscous fluid. */
   public void dampenNodes(GraphSprite graph) {
-    for(VertexSprite vertex : graph.getSprites()) {
-      setDX(vertex, getDX(vertex)*DAMP);
-      setDY(vertex, getDY(vertex)*DAMP);
+    double[] dx = store.dx;
+    double[] dy = store.dy;
+    for(int i = 0; i < numSprites; i++) {
+      dx[i] *= DAMP;
+      dy[i] *= DAMP;
     }
   }
   
@@ -144,9 +294,16 @@ public class ForceDirectedGraphLayout extends GraphLayout {
   /** 
    * Applies all relevant forces for the layout to influence the velocities 
    * of the nodes.
-   * Subclasses can override this method to extend its functionality
+   * Subclasses can override this method to extend its functionality.
+   * If numThreads is greater than 1, the forces are computed by 
+   * applyLayoutForcesParallel instead.
    */
   public void applyLayoutForces(GraphSprite graph) {
+    if(numThreads > 1) {
+      applyLayoutForcesParallel(graph);
+      return;
+    }
+    
     // All the nodes repel each other like same-charged particles. 
     repelNodes(graph);
     
@@ -160,35 +317,70 @@ public class ForceDirectedGraphLayout extends GraphLayout {
   
   /** Applies forces to cause all nodes to repel each other. */
   public void repelNodes(GraphSprite graph) {
-    Collection<VertexSprite> vertices = graph.getSprites();
+    if(useBarnesHut) {
+      repelNodesBarnesHut(graph);
+      return;
+    }
+    
     double antigrav = ANTIGRAV + 100*visibleSize;
+    double[] x = store.x;
+    double[] y = store.y;
+    double[] dx = store.dx;
+    double[] dy = store.dy;
+    double[] mass = store.mass;
     
-    for(VertexSprite vertex : vertices) {
-      if(!vertex.isActive()) {
-        continue;
-      }
-      for(VertexSprite other : vertices) {
-        if(vertex == other || !other.isActive()) {
+    for(int a = 0; a < visibleSize; a++) {
+      int i = activeSlots[a];
+      for(int b = 0; b < visibleSize; b++) {
+        int j = activeSlots[b];
+        if(i == j) {
           continue;
         }
         
         // Scatter the nodes if they occupy the same point.
-        if(vertex.x == other.x && vertex.y == other.y) {
-          vertex.x += 1*GameMath.cos(scatterAngle);
-          vertex.y += 1*GameMath.sin(scatterAngle);
-          scatterAngle += 31;
+        if(x[i] == x[j] && y[i] == y[j]) {
+          _scatter(i);
         }
         
-        double dist2 = Math.max(32*32, GameMath.distSq(vertex.x, vertex.y, other.x, other.y));
+        double ox = x[j] - x[i];
+        double oy = y[j] - y[i];
+        double dist2 = Math.max(32*32, ox*ox + oy*oy);
         double dist = Math.sqrt(dist2);
         
-        double nodeAccel = -1 * antigrav*SPEED * getMass(other) / dist2;
-        double xUnit = (other.x - vertex.x)/dist;
-        double yUnit = (other.y - vertex.y)/dist;
-        
-        setDX(vertex, getDX(vertex) + nodeAccel * xUnit);
-        setDY(vertex, getDY(vertex) + nodeAccel * yUnit);
+        double nodeAccel = -1 * antigrav*SPEED * mass[j] / dist2;
+        dx[i] += nodeAccel * ox/dist;
+        dy[i] += nodeAccel * oy/dist;
+      }
+    }
+  }
+  
+  
+  
+  /** 
+   * Applies the same repulsion forces as repelNodes, but approximates the 
+   * forces from distant groups of vertices using a Barnes-Hut quadtree 
+   * rebuilt from the active vertices' positions.
+   */
+  public void repelNodesBarnesHut(GraphSprite graph) {
+    double antigrav = ANTIGRAV + 100*visibleSize;
+    
+    int count = _snapshotActiveVertices();
+    repulsionTree.build(activeX, activeY, activeMass, count);
+    
+    double[] dx = store.dx;
+    double[] dy = store.dy;
+    double[] field = new double[3];
+    for(int a = 0; a < count; a++) {
+      int i = activeSlots[a];
+      repulsionTree.computeField(a, THETA, field);
+      
+      // Scatter the node if other nodes occupy the same point.
+      if(field[2] > 0) {
+        _scatter(i);
       }
+      
+      dx[i] -= antigrav*SPEED*field[0];
+      dy[i] -= antigrav*SPEED*field[1];
     }
   }
   
@@ -196,54 +388,220 @@ public class ForceDirectedGraphLayout extends GraphLayout {
   
   /** Applies forces to cause nodes to be attracted to their neighbors by spring forces. */
   public void attractNeighbors(GraphSprite graph) {
-    for(VertexSprite vertex : graph.getSprites()) {
-      if(!vertex.isActive()) {
+    double[] accel = new double[2];
+    for(int a = 0; a < visibleSize; a++) {
+      int i = activeSlots[a];
+      accel[0] = 0;
+      accel[1] = 0;
+      _addNeighborAccel(i, accel);
+      
+      store.dx[i] += accel[0];
+      store.dy[i] += accel[1];
+    }
+  }
+  
+  
+  
+  /** Applies forces to cause all nodes to be attracted to the graph's origin. */
+  public void attractOrigin(GraphSprite graph) {
+    double[] accel = new double[2];
+    for(int a = 0; a < visibleSize; a++) {
+      int i = activeSlots[a];
+      accel[0] = 0;
+      accel[1] = 0;
+      _addOriginAccel(i, accel);
+      
+      store.dx[i] += accel[0];
+      store.dy[i] += accel[1];
+    }
+  }
+  
+  
+  
+  /** Adds the acceleration from a vertex's neighbor springs to accel. */
+  private void _addNeighborAccel(int i, double[] accel) {
+    double[] x = store.x;
+    double[] y = store.y;
+    
+    // attract!
+    for(int e = neighborOffsets[i]; e < neighborOffsets[i+1]; e++) {
+      int j = neighborSlots[e];
+      if(i == j || !active[j]) {
         continue;
       }
       
-      // Get the nodes set of neighbors.
-      Set<String> neighbors = vertex.getNeighbors();
+      // It is important that the edge applies equal force to both of its end nodes!
+      double springForce = NSPRING/Math.max(1, Math.max(degree[i], degree[j]));
       
-      // attract!
-      for(String otherID : neighbors) {
-        VertexSprite other = graph.getSprite(otherID);
-        if(vertex == other || !other.isActive()) {
-          continue;
+      double ox = x[j] - x[i];
+      double oy = y[j] - y[i];
+      double dist = Math.max(1, Math.sqrt(ox*ox + oy*oy));
+      
+      double nodeAccel = springForce*SPEED * dist / store.mass[i];
+      accel[0] += nodeAccel * ox/dist;
+      accel[1] += nodeAccel * oy/dist;
+    }
+  }
+  
+  
+  /** Adds the acceleration from a vertex's spring to the origin to accel. */
+  private void _addOriginAccel(int i, double[] accel) {
+    double x = store.x[i];
+    double y = store.y[i];
+    double dist = Math.max(1, Math.sqrt(x*x + y*y));
+    
+    double nodeAccel = OSPRING*SPEED * dist;
+    accel[0] += nodeAccel * (0 - x)/dist;
+    accel[1] += nodeAccel * (0 - y)/dist;
+  }
+  
+  
+  
+  /** 
+   * Computes the same forces as applyLayoutForces, split across numThreads 
+   * threads. The active vertices are divided into numThreads contiguous 
+   * blocks, and each thread accumulates the accelerations for its own block 
+   * while only reading the vertices' positions. The accelerations are then 
+   * merged into the vertices' velocities in a fixed order, so the results 
+   * are deterministic. Vertices sharing the same point are scattered 
+   * during the merge.
+   */
+  public void applyLayoutForcesParallel(GraphSprite graph) {
+    final int count = _snapshotActiveVertices();
+    if(count == 0) {
+      return;
+    }
+    if(accelX.length < count) {
+      accelX = new double[count];
+      accelY = new double[count];
+      coincident = new boolean[count];
+    }
+    if(useBarnesHut) {
+      repulsionTree.build(activeX, activeY, activeMass, count);
+    }
+    
+    final double antigrav = ANTIGRAV + 100*visibleSize;
+    int blocks = Math.min(numThreads, count);
+    RecursiveAction[] tasks = new RecursiveAction[blocks];
+    for(int b = 0; b < blocks; b++) {
+      final int start = (int) ((long) count * b / blocks);
+      final int end = (int) ((long) count * (b+1) / blocks);
+      
+      tasks[b] = new RecursiveAction() {
+        protected void compute() {
+          double[] accel = new double[3];
+          int[] workStack = repulsionTree.newWorkStack();
+          
+          for(int a = start; a < end; a++) {
+            int i = activeSlots[a];
+            
+            // Repulsion from the other active vertices.
+            if(useBarnesHut) {
+              repulsionTree.computeField(a, THETA, accel, workStack);
+            }
+            else {
+              _computeExactField(a, count, accel);
+            }
+            coincident[a] = (accel[2] > 0);
+            accel[0] *= -antigrav*SPEED;
+            accel[1] *= -antigrav*SPEED;
+            
+            // Springs to the neighbors and the origin.
+            _addNeighborAccel(i, accel);
+            _addOriginAccel(i, accel);
+            
+            accelX[a] = accel[0];
+            accelY[a] = accel[1];
+          }
         }
-        
-        // It is important that the edge applies equal force to both of its end nodes!
-        double springForce = NSPRING/Math.max(1, Math.max(neighbors.size(), other.getNeighbors().size()));
-        
-        double dist = Math.max(1,GameMath.dist(vertex.x, vertex.y, other.x, other.y));
-        
-        double nodeAccel = springForce*SPEED * dist / getMass(vertex);
-        double xUnit = (other.x - vertex.x)/dist;
-        double yUnit = (other.y - vertex.y)/dist;
-        
-        setDX(vertex, getDX(vertex) + nodeAccel * xUnit);
-        setDY(vertex, getDY(vertex) + nodeAccel * yUnit);
+      };
+    }
+    
+    final RecursiveAction[] allTasks = tasks;
+    _getPool().invoke(new RecursiveAction() {
+      protected void compute() {
+        invokeAll(allTasks);
       }
+    });
+    
+    // Merge the accelerations in vertex order.
+    for(int a = 0; a < count; a++) {
+      int i = activeSlots[a];
+      if(coincident[a]) {
+        _scatter(i);
+      }
+      
+      store.dx[i] += accelX[a];
+      store.dy[i] += accelY[a];
     }
   }
   
   
-  
-  /** Applies forces to cause all nodes to be attracted to the graph's origin. */
-  public void attractOrigin(GraphSprite graph) {
-    for(VertexSprite vertex : graph.getSprites()) {
-      if(!vertex.isActive()) {
+  /** 
+   * Computes the exact inverse-square field at an active vertex from all 
+   * the other active vertices, in the same form as BarnesHutTree.computeField.
+   */
+  private void _computeExactField(int index, int count, double[] field) {
+    double x = activeX[index];
+    double y = activeY[index];
+    double fx = 0;
+    double fy = 0;
+    int same = 0;
+    
+    for(int j = 0; j < count; j++) {
+      if(j == index) {
+        continue;
+      }
+      double dx = activeX[j] - x;
+      double dy = activeY[j] - y;
+      if(dx == 0 && dy == 0) {
+        same++;
         continue;
       }
       
-      double dist = Math.max(1, GameMath.dist(vertex.x, vertex.y, 0, 0));
-        
-      double nodeAccel = OSPRING*SPEED * dist;
-      double xUnit = (0 - vertex.x)/dist;
-      double yUnit = (0 - vertex.y)/dist;
-      
-      setDX(vertex, getDX(vertex) + nodeAccel * xUnit);
-      setDY(vertex, getDY(vertex) + nodeAccel * yUnit);
+      double dist2 = Math.max(32*32, dx*dx + dy*dy);
+      double scale = activeMass[j] / (dist2 * Math.sqrt(dist2));
+      fx += dx*scale;
+      fy += dy*scale;
+    }
+    
+    field[0] = fx;
+    field[1] = fy;
+    field[2] = same;
+  }
+  
+  
+  /** 
+   * Copies the active vertices' positions and masses from the store into 
+   * the contiguous snapshot arrays. 
+   * @return  The number of active vertices.
+   */
+  private int _snapshotActiveVertices() {
+    int count = visibleSize;
+    if(activeX.length < count) {
+      activeX = new double[count];
+      activeY = new double[count];
+      activeMass = new double[count];
+    }
+    for(int a = 0; a < count; a++) {
+      int i = activeSlots[a];
+      activeX[a] = store.x[i];
+      activeY[a] = store.y[i];
+      activeMass[a] = store.mass[i];
+    }
+    return count;
+  }
+  
+  
+  /** Returns the pool for parallel force computation, recreating it if numThreads has changed. */
+  private ForkJoinPool _getPool() {
+    if(pool == null || pool.getParallelism() != numThreads) {
+      if(pool != null) {
+        pool.shutdown();
+      }
+      pool = new ForkJoinPool(numThreads);
     }
+    return pool;
   }
   
 }
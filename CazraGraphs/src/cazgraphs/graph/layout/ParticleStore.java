@@ -0,0 +1,168 @@
+package cazgraphs.graph.layout;
+
+import java.util.Arrays;
+
+import cazgraphs.CazgraphException;
+
+/**
+ * Particle physics for a set of vertices, stored as parallel arrays of
+ * positions, velocities, and masses indexed by a dense slot number.
+ * Each vertex is given a Slot, which is its LayoutPhysics object and
+ * provides the same property codes as ParticlePhysics.
+ * The arrays are only exposed within the layout package, for the layout's
+ * inner loops. They may be replaced when the store grows or is reordered,
+ * so they should be read from the store's fields again after calling
+ * allocate or reorder.
+ */
+public class ParticleStore {
+
+  double[] x = new double[16];
+  double[] y = new double[16];
+  double[] dx = new double[16];
+  double[] dy = new double[16];
+  double[] mass = new double[16];
+
+  /** The slot objects, by index. */
+  private Slot[] slots = new Slot[16];
+
+  private int size = 0;
+
+
+
+  /** Returns the number of slots in the store. */
+  public int size() {
+    return size;
+  }
+
+
+  /** Returns the slot at some index. */
+  public Slot getSlot(int index) {
+    return slots[index];
+  }
+
+
+  /** Creates a new slot with 0 velocity and 1 unit of mass. */
+  public Slot allocate() {
+    if(size == slots.length) {
+      _resize(size*2);
+    }
+
+    Slot slot = new Slot(size);
+    slots[size] = slot;
+    x[size] = 0;
+    y[size] = 0;
+    dx[size] = 0;
+    dy[size] = 0;
+    mass[size] = 1;
+    size++;
+    return slot;
+  }
+
+
+  /**
+   * Moves the data for the first count slots in order to indices 0 through
+   * count-1. Slots not in order are removed from the store and their index
+   * becomes -1.
+   */
+  public void reorder(Slot[] order, int count) {
+    double[] newX = new double[Math.max(16, count)];
+    double[] newY = new double[newX.length];
+    double[] newDX = new double[newX.length];
+    double[] newDY = new double[newX.length];
+    double[] newMass = new double[newX.length];
+
+    for(int i = 0; i < count; i++) {
+      int old = order[i].index;
+      newX[i] = x[old];
+      newY[i] = y[old];
+      newDX[i] = dx[old];
+      newDY[i] = dy[old];
+      newMass[i] = mass[old];
+    }
+
+    for(int i = 0; i < size; i++) {
+      slots[i].index = -1;
+    }
+    Slot[] newSlots = new Slot[newX.length];
+    for(int i = 0; i < count; i++) {
+      order[i].index = i;
+      newSlots[i] = order[i];
+    }
+
+    x = newX;
+    y = newY;
+    dx = newDX;
+    dy = newDY;
+    mass = newMass;
+    slots = newSlots;
+    size = count;
+  }
+
+
+  private void _resize(int capacity) {
+    x = Arrays.copyOf(x, capacity);
+    y = Arrays.copyOf(y, capacity);
+    dx = Arrays.copyOf(dx, capacity);
+    dy = Arrays.copyOf(dy, capacity);
+    mass = Arrays.copyOf(mass, capacity);
+    slots = Arrays.copyOf(slots, capacity);
+  }
+
+
+
+  /** The LayoutPhysics for one vertex, backed by its slot in the store. */
+  public class Slot implements LayoutPhysics {
+
+    private int index;
+
+    private Slot(int index) {
+      this.index = index;
+    }
+
+    /** Returns this slot's index in the store's arrays, or -1 if it was removed. */
+    public int getIndex() {
+      return index;
+    }
+
+    /** Returns the store this slot belongs to. */
+    public ParticleStore getStore() {
+      return ParticleStore.this;
+    }
+
+    public double getProp(int code) {
+      _checkIndex();
+      if(code == ParticlePhysics.DX) {
+        return dx[index];
+      }
+      else if(code == ParticlePhysics.DY) {
+        return dy[index];
+      }
+      else if(code == ParticlePhysics.MASS) {
+        return mass[index];
+      }
+      else {
+        return -1;
+      }
+    }
+
+    public void setProp(int code, double value) {
+      _checkIndex();
+      if(code == ParticlePhysics.DX) {
+        dx[index] = value;
+      }
+      else if(code == ParticlePhysics.DY) {
+        dy[index] = value;
+      }
+      else if(code == ParticlePhysics.MASS) {
+        mass[index] = value;
+      }
+    }
+
+    /** Throws a CazgraphException if this slot has been removed from the store. */
+    private void _checkIndex() {
+      if(index < 0) {
+        throw new CazgraphException("This vertex's physics have been removed from its layout.");
+      }
+    }
+  }
+}
@@ -0,0 +1,524 @@
+package cazgraphs.graph.model;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import cazgraphs.CazgraphException;
+
+/**
+ * An immutable, memory-compact directed graph.
+ * Vertex IDs are interned to dense integer indices in [0, size()), and the
+ * forward and backward edges are stored in compressed-sparse-row form:
+ * the neighbors of vertex v are the entries of a single int array in the
+ * range [offsets[v], offsets[v+1]), sorted in ascending index order.
+ * Instances are created with a CompactDirectedGraph.Builder. Use
+ * asDirectedGraph() to pass one to code expecting a DirectedGraph, such as
+ * GraphSolver or GraphSprite.
+ */
+public class CompactDirectedGraph {
+
+  /** The vertex IDs, indexed by vertex index. */
+  private String[] ids;
+
+  /**
+   * The objects stored at the vertices, indexed by vertex index.
+   * Null if every vertex stores its own ID.
+   */
+  private Object[] objects;
+
+  /**
+   * Open-addressed hash table mapping vertex IDs to vertex indices.
+   * Each slot holds a vertex index + 1, or 0 if the slot is empty.
+   */
+  private int[] idTable;
+
+  /** Row offsets into outTargets for each vertex's forward edges. */
+  private int[] outOffsets;
+
+  /** The targets of the forward edges, grouped by source vertex. */
+  private int[] outTargets;
+
+  /** Row offsets into inSources for each vertex's backward edges. */
+  private int[] inOffsets;
+
+  /** The sources of the backward edges, grouped by target vertex. */
+  private int[] inSources;
+
+  /** Whether the builder added each edge in both directions. */
+  private boolean undirected;
+
+  /** A lazily created DirectedGraph view of this graph. */
+  private CompactGraphView view = null;
+
+
+  private CompactDirectedGraph(String[] ids, Object[] objects, int[] idTable,
+                               int[] outOffsets, int[] outTargets,
+                               int[] inOffsets, int[] inSources, boolean undirected) {
+    this.ids = ids;
+    this.objects = objects;
+    this.idTable = idTable;
+    this.outOffsets = outOffsets;
+    this.outTargets = outTargets;
+    this.inOffsets = inOffsets;
+    this.inSources = inSources;
+    this.undirected = undirected;
+  }
+
+
+  /**
+   * Creates a compact copy of an existing graph.
+   * Vertex and edge attributes are not copied.
+   */
+  public static CompactDirectedGraph fromGraph(DirectedGraph graph) {
+    Builder builder = new Builder(graph instanceof UndirectedGraph);
+    for(String vertexID : graph.getVertexIDs()) {
+      builder.addVertex(vertexID, graph.getObject(vertexID));
+    }
+    for(String from : graph.getVertexIDs()) {
+      for(String to : graph.getEdges(from)) {
+        builder.addDirectedEdge(from, to);
+      }
+    }
+    return builder.build();
+  }
+
+
+
+  //////// Graph operations
+
+  /** Returns the number of vertices in the graph. */
+  public int size() {
+    return ids.length;
+  }
+
+  /** Returns the number of directed edges in the graph. */
+  public int edgeCount() {
+    return outTargets.length;
+  }
+
+  /** Returns true iff every edge in this graph has a matching reverse edge. */
+  public boolean isUndirected() {
+    return undirected;
+  }
+
+  /**
+   * Returns a read-only DirectedGraph backed by this graph. The view can be
+   * passed to GraphSolver or used as the model for a GraphSprite.
+   */
+  public DirectedGraph asDirectedGraph() {
+    if(view == null) {
+      view = new CompactGraphView(this);
+    }
+    return view;
+  }
+
+
+  //////// Vertex operations
+
+  /** Returns the index of the vertex with the specified ID, or -1 if it doesn't exist. */
+  public int indexOf(String id) {
+    if(id == null) {
+      return -1;
+    }
+    return _lookup(ids, idTable, id);
+  }
+
+  /** Returns true iff the graph contains a vertex with the specified ID. */
+  public boolean hasVertex(String id) {
+    return indexOf(id) >= 0;
+  }
+
+  /** Returns the ID of the vertex at an index. */
+  public String getID(int vertex) {
+    return ids[vertex];
+  }
+
+  /** Returns the object stored at the vertex at an index. */
+  public Object getObject(int vertex) {
+    if(objects == null || objects[vertex] == null) {
+      return ids[vertex];
+    }
+    return objects[vertex];
+  }
+
+
+  //////// Edge operations
+
+  /** Returns the number of forward edges of a vertex. */
+  public int outDegree(int vertex) {
+    return outOffsets[vertex+1] - outOffsets[vertex];
+  }
+
+  /** Returns the target of the i'th forward edge of a vertex. */
+  public int outNeighbor(int vertex, int i) {
+    return outTargets[outOffsets[vertex] + i];
+  }
+
+  /** Returns the number of backward edges of a vertex. */
+  public int inDegree(int vertex) {
+    return inOffsets[vertex+1] - inOffsets[vertex];
+  }
+
+  /** Returns the source of the i'th backward edge of a vertex. */
+  public int inNeighbor(int vertex, int i) {
+    return inSources[inOffsets[vertex] + i];
+  }
+
+  /** Passes the target of each of a vertex's forward edges to a visitor, in ascending order. */
+  public void forEachOutNeighbor(int vertex, IntConsumer visitor) {
+    for(int i = outOffsets[vertex]; i < outOffsets[vertex+1]; i++) {
+      visitor.accept(outTargets[i]);
+    }
+  }
+
+  /** Passes the source of each of a vertex's backward edges to a visitor, in ascending order. */
+  public void forEachInNeighbor(int vertex, IntConsumer visitor) {
+    for(int i = inOffsets[vertex]; i < inOffsets[vertex+1]; i++) {
+      visitor.accept(inSources[i]);
+    }
+  }
+
+  /**
+   * Passes each vertex joined to a vertex by a forward or backward edge to a
+   * visitor exactly once, in ascending order. The sorted forward and
+   * backward rows are merged, so nothing is allocated.
+   */
+  public void forEachNeighbor(int vertex, IntConsumer visitor) {
+    int i = outOffsets[vertex];
+    int iEnd = outOffsets[vertex+1];
+    int j = inOffsets[vertex];
+    int jEnd = inOffsets[vertex+1];
+    while(i < iEnd || j < jEnd) {
+      int next;
+      if(j == jEnd || (i < iEnd && outTargets[i] < inSources[j])) {
+        next = outTargets[i++];
+      }
+      else if(i == iEnd || inSources[j] < outTargets[i]) {
+        next = inSources[j++];
+      }
+      else {
+        next = outTargets[i++];
+        j++;
+      }
+      visitor.accept(next);
+    }
+  }
+
+  /** Returns the number of vertices forEachNeighbor would visit. */
+  public int neighborCount(int vertex) {
+    int count = 0;
+    int i = outOffsets[vertex];
+    int iEnd = outOffsets[vertex+1];
+    int j = inOffsets[vertex];
+    int jEnd = inOffsets[vertex+1];
+    while(i < iEnd && j < jEnd) {
+      if(outTargets[i] < inSources[j]) {
+        i++;
+      }
+      else if(inSources[j] < outTargets[i]) {
+        j++;
+      }
+      else {
+        i++;
+        j++;
+      }
+      count++;
+    }
+    return count + (iEnd - i) + (jEnd - j);
+  }
+
+  /** Returns true iff the specified edge exists. Completes in O(log(out-degree)) time. */
+  public boolean hasEdge(int from, int to) {
+    return Arrays.binarySearch(outTargets, outOffsets[from], outOffsets[from+1], to) >= 0;
+  }
+
+
+
+  //////// ID interning
+
+  /** Returns the index of id in ids using the open-addressed table, or -1. */
+  private static int _lookup(String[] ids, int[] table, String id) {
+    int mask = table.length - 1;
+    int slot = _spread(id.hashCode()) & mask;
+    while(table[slot] != 0) {
+      int index = table[slot] - 1;
+      if(ids[index].equals(id)) {
+        return index;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  /** Scrambles a hash code so that linear probing stays well-distributed. */
+  private static int _spread(int h) {
+    h *= 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+
+
+  /**
+   * Accumulates vertices and edges, then freezes them into a
+   * CompactDirectedGraph. Duplicate edges are collapsed, just as in
+   * DirectedGraph.
+   */
+  public static class Builder {
+
+    private String[] ids = new String[16];
+
+    private Object[] objects = null;
+
+    private int[] idTable = new int[32];
+
+    private int numVertices = 0;
+
+    /** Edge endpoints, packed as (from, to) pairs. */
+    private int[] edgeEnds = new int[32];
+
+    private int numEdges = 0;
+
+    private boolean undirected;
+
+    /** Whether build() has been called. */
+    private boolean built = false;
+
+
+    /** Creates a builder for a directed graph. */
+    public Builder() {
+      this(false);
+    }
+
+    /**
+     * Creates a builder. If undirected is true, addEdge adds each edge in
+     * both directions, like UndirectedGraph.
+     */
+    public Builder(boolean undirected) {
+      this.undirected = undirected;
+    }
+
+
+    /** Returns the number of vertices added so far. */
+    public int size() {
+      return numVertices;
+    }
+
+
+    /**
+     * Adds a vertex whose stored object is its own ID.
+     * @return  The index of the vertex.
+     */
+    public int addVertex(String id) {
+      return addVertex(id, id);
+    }
+
+
+    /**
+     * Adds a vertex, given its unique ID and the object stored at it.
+     * If the vertex already exists, its object is replaced.
+     * @return  The index of the vertex.
+     */
+    public int addVertex(String id, Object obj) {
+      _checkNotBuilt();
+      if(id == null) {
+        throw new CazgraphException("The ID of a vertex cannot be null.");
+      }
+
+      int index = _lookup(ids, idTable, id);
+      if(index < 0) {
+        index = numVertices;
+        if(numVertices == ids.length) {
+          ids = Arrays.copyOf(ids, ids.length*2);
+          if(objects != null) {
+            objects = Arrays.copyOf(objects, ids.length);
+          }
+        }
+        ids[index] = id;
+        numVertices++;
+
+        // Keep the table at most half full.
+        if(numVertices*2 > idTable.length) {
+          _rehash(idTable.length*2);
+        }
+        else {
+          _insert(ids, idTable, index);
+        }
+      }
+
+      // Only allocate the objects column once some vertex stores something other than its ID.
+      if(obj != null && !id.equals(obj)) {
+        if(objects == null) {
+          objects = new Object[ids.length];
+        }
+        objects[index] = obj;
+      }
+      else if(objects != null) {
+        objects[index] = null;
+      }
+
+      return index;
+    }
+
+
+    /**
+     * Adds an edge, given the IDs of its end vertices.
+     * Both vertices must already exist. If this builder is undirected, the
+     * reverse edge is added too.
+     */
+    public void addEdge(String from, String to) {
+      addEdge(_indexOf(from, from, to), _indexOf(to, from, to));
+    }
+
+    /**
+     * Adds an edge, given the indices of its end vertices.
+     * If this builder is undirected, the reverse edge is added too.
+     */
+    public void addEdge(int from, int to) {
+      _addDirectedEdge(from, to);
+      if(undirected) {
+        _addDirectedEdge(to, from);
+      }
+    }
+
+    /** Adds a single directed edge, even if this builder is undirected. */
+    void addDirectedEdge(String from, String to) {
+      _addDirectedEdge(_indexOf(from, from, to), _indexOf(to, from, to));
+    }
+
+
+    /**
+     * Freezes the vertices and edges into a CompactDirectedGraph.
+     * The builder cannot be used afterwards.
+     */
+    public CompactDirectedGraph build() {
+      _checkNotBuilt();
+      built = true;
+
+      int n = numVertices;
+      String[] finalIDs = Arrays.copyOf(ids, n);
+      Object[] finalObjects = (objects == null ? null : Arrays.copyOf(objects, n));
+
+      // Counting sort the edges by source vertex into CSR rows.
+      int[] outOffsets = new int[n+1];
+      for(int e = 0; e < numEdges; e++) {
+        outOffsets[edgeEnds[2*e] + 1]++;
+      }
+      for(int v = 0; v < n; v++) {
+        outOffsets[v+1] += outOffsets[v];
+      }
+      int[] fill = Arrays.copyOf(outOffsets, n);
+      int[] outTargets = new int[numEdges];
+      for(int e = 0; e < numEdges; e++) {
+        outTargets[fill[edgeEnds[2*e]]++] = edgeEnds[2*e + 1];
+      }
+      edgeEnds = null;
+
+      // Sort each row and compact away duplicate edges in place.
+      int write = 0;
+      for(int v = 0; v < n; v++) {
+        int rowStart = outOffsets[v];
+        int rowEnd = outOffsets[v+1];
+        Arrays.sort(outTargets, rowStart, rowEnd);
+
+        outOffsets[v] = write;
+        for(int i = rowStart; i < rowEnd; i++) {
+          if(i == rowStart || outTargets[i] != outTargets[i-1]) {
+            outTargets[write++] = outTargets[i];
+          }
+        }
+      }
+      outOffsets[n] = write;
+      if(write != outTargets.length) {
+        outTargets = Arrays.copyOf(outTargets, write);
+      }
+
+      // Transpose the forward rows to get the backward rows. Scanning the
+      // sources in ascending order leaves each backward row sorted.
+      int[] inOffsets = new int[n+1];
+      for(int i = 0; i < outTargets.length; i++) {
+        inOffsets[outTargets[i] + 1]++;
+      }
+      for(int v = 0; v < n; v++) {
+        inOffsets[v+1] += inOffsets[v];
+      }
+      fill = Arrays.copyOf(inOffsets, n);
+      int[] inSources = new int[outTargets.length];
+      for(int v = 0; v < n; v++) {
+        for(int i = outOffsets[v]; i < outOffsets[v+1]; i++) {
+          inSources[fill[outTargets[i]]++] = v;
+        }
+      }
+
+      // Rebuild the ID table at its final size.
+      int[] finalTable = new int[_tableSizeFor(n)];
+      for(int v = 0; v < n; v++) {
+        _insert(finalIDs, finalTable, v);
+      }
+
+      return new CompactDirectedGraph(finalIDs, finalObjects, finalTable,
+                                      outOffsets, outTargets, inOffsets, inSources, undirected);
+    }
+
+
+    private void _addDirectedEdge(int from, int to) {
+      _checkNotBuilt();
+      if(from < 0 || from >= numVertices || to < 0 || to >= numVertices) {
+        throw new CazgraphException("Cannot create edge {" + from + " -> " + to + "} because a vertex index is out of range.");
+      }
+
+      if(2*numEdges + 2 > edgeEnds.length) {
+        edgeEnds = Arrays.copyOf(edgeEnds, edgeEnds.length*2);
+      }
+      edgeEnds[2*numEdges] = from;
+      edgeEnds[2*numEdges + 1] = to;
+      numEdges++;
+    }
+
+
+    /** Returns the index of a vertex that must exist for an edge to be created. */
+    private int _indexOf(String id, String from, String to) {
+      if(from == null || to == null) {
+        throw new CazgraphException("Cannot create null edge: " + from + " -> " + to);
+      }
+      int index = _lookup(ids, idTable, id);
+      if(index < 0) {
+        throw new CazgraphException("Cannot create edge {" + from + " -> " + to + "} because " + id + " doesn't exist.");
+      }
+      return index;
+    }
+
+
+    private void _rehash(int tableSize) {
+      idTable = new int[tableSize];
+      for(int v = 0; v < numVertices; v++) {
+        _insert(ids, idTable, v);
+      }
+    }
+
+    private void _checkNotBuilt() {
+      if(built) {
+        throw new CazgraphException("This builder has already been built.");
+      }
+    }
+  }
+
+
+  /** Inserts the vertex index into an open-addressed ID table. */
+  private static void _insert(String[] ids, int[] table, int index) {
+    int mask = table.length - 1;
+    int slot = _spread(ids[index].hashCode()) & mask;
+    while(table[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = index + 1;
+  }
+
+  /** Returns the smallest power-of-2 table size that is at most half full with n entries. */
+  private static int _tableSizeFor(int n) {
+    int size = 2;
+    while(size < n*2) {
+      size *= 2;
+    }
+    return size;
+  }
+}
@@ -0,0 +1,290 @@
+package cazgraphs.graph.model;
+
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import cazgraphs.CazgraphException;
+
+/**
+ * A read-only DirectedGraph backed by a CompactDirectedGraph.
+ * The vertex and edge sets returned by this view are lightweight wrappers
+ * over the compact graph's arrays, so nothing is copied into hash maps.
+ * Any operation that would modify the graph throws a CazgraphException.
+ */
+public class CompactGraphView extends DirectedGraph {
+
+  /** The compact graph this view is backed by. */
+  private CompactDirectedGraph compact;
+
+  /** The set of vertex IDs. */
+  private Set<String> vertexIDs;
+
+
+  /** Creates a view of a compact graph. */
+  public CompactGraphView(CompactDirectedGraph compact) {
+    super();
+    this.compact = compact;
+    this.vertexIDs = new VertexIDSet();
+  }
+
+
+  /** Returns the compact graph backing this view. */
+  public CompactDirectedGraph getCompactGraph() {
+    return compact;
+  }
+
+
+
+  //////// Graph operations
+
+  @Override
+  public int size() {
+    return compact.size();
+  }
+
+  @Override
+  public void clear() {
+    throw _readOnly();
+  }
+
+  @Override
+  public void setGraphAttribute(String attrName, String value) {
+    throw _readOnly();
+  }
+
+
+  //////// Vertex operations
+
+  @Override
+  public boolean hasVertex(String id) {
+    return compact.hasVertex(id);
+  }
+
+  @Override
+  public Object getObject(String vertexID) {
+    int index = compact.indexOf(vertexID);
+    if(index < 0) {
+      return null;
+    }
+    return compact.getObject(index);
+  }
+
+  @Override
+  public void setObject(String vertexID, Object obj) {
+    throw _readOnly();
+  }
+
+  @Override
+  public Set<String> getVertexIDs() {
+    return vertexIDs;
+  }
+
+  @Override
+  public void addVertex(String id, Object obj) {
+    throw _readOnly();
+  }
+
+  @Override
+  public void removeVertex(String id) {
+    throw _readOnly();
+  }
+
+  @Override
+  public void removeSubGraph(String startVertexID) {
+    throw _readOnly();
+  }
+
+  @Override
+  public String getVertexAttribute(String vertexID, String attrName) {
+    _indexOf(vertexID);
+    return "";
+  }
+
+  @Override
+  public Set<String> getVertexAttributeNames(String vertexID) {
+    _indexOf(vertexID);
+    return Collections.emptySet();
+  }
+
+  @Override
+  public void getVertexAttribute(String vertexID, String attrName, String value) {
+    throw _readOnly();
+  }
+
+
+  //////// Edge operations
+
+  @Override
+  public boolean hasEdge(String from, String to) {
+    int fromIndex = compact.indexOf(from);
+    int toIndex = compact.indexOf(to);
+    return fromIndex >= 0 && toIndex >= 0 && compact.hasEdge(fromIndex, toIndex);
+  }
+
+  @Override
+  public Set<String> getEdges(String vertexID) {
+    return new EdgeSet(_indexOf(vertexID), true);
+  }
+
+  @Override
+  public Set<String> getBackwardEdges(String vertexID) {
+    return new EdgeSet(_indexOf(vertexID), false);
+  }
+
+  @Override
+  public int getNeighborCount(String vertexID) {
+    return compact.neighborCount(_indexOf(vertexID));
+  }
+
+  @Override
+  public void forEachOutEdge(String vertexID, Consumer<String> visitor) {
+    compact.forEachOutNeighbor(_indexOf(vertexID), w -> visitor.accept(compact.getID(w)));
+  }
+
+  @Override
+  public void forEachInEdge(String vertexID, Consumer<String> visitor) {
+    compact.forEachInNeighbor(_indexOf(vertexID), w -> visitor.accept(compact.getID(w)));
+  }
+
+  @Override
+  public void forEachNeighbor(String vertexID, Consumer<String> visitor) {
+    compact.forEachNeighbor(_indexOf(vertexID), w -> visitor.accept(compact.getID(w)));
+  }
+
+  @Override
+  public void addEdge(String from, String to) {
+    throw _readOnly();
+  }
+
+  @Override
+  public void removeEdge(String from, String to) {
+    throw _readOnly();
+  }
+
+  @Override
+  public void removeAllEdges() {
+    throw _readOnly();
+  }
+
+  @Override
+  public void removeAllEdges(String vertexID) {
+    throw _readOnly();
+  }
+
+  @Override
+  public void setEdgeAttribute(String fromID, String toID, String attrName, String value) {
+    throw _readOnly();
+  }
+
+  @Override
+  public String getEdgeAttribute(String fromID, String toID, String attrName) {
+    if(!hasEdge(fromID, toID)) {
+      throw new CazgraphException("Edge " + fromID + " -> " + toID + " doesn't exist.");
+    }
+    return "";
+  }
+
+
+
+  /** Returns the index of a vertex that is required to exist. */
+  private int _indexOf(String vertexID) {
+    int index = compact.indexOf(vertexID);
+    if(index < 0) {
+      throw new CazgraphException("Vertex " + vertexID + " doesn't exist.");
+    }
+    return index;
+  }
+
+  private CazgraphException _readOnly() {
+    return new CazgraphException("A CompactGraphView is read-only.");
+  }
+
+
+
+  /** The set of all vertex IDs, in vertex index order. */
+  private class VertexIDSet extends AbstractSet<String> {
+
+    @Override
+    public int size() {
+      return compact.size();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      return (o instanceof String) && compact.hasVertex((String) o);
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+      return new Iterator<String>() {
+        private int next = 0;
+
+        public boolean hasNext() {
+          return next < compact.size();
+        }
+
+        public String next() {
+          if(!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          return compact.getID(next++);
+        }
+      };
+    }
+  }
+
+
+  /** The set of IDs at the other end of one vertex's forward or backward edges. */
+  private class EdgeSet extends AbstractSet<String> {
+
+    private int vertex;
+
+    private boolean forward;
+
+    EdgeSet(int vertex, boolean forward) {
+      this.vertex = vertex;
+      this.forward = forward;
+    }
+
+    @Override
+    public int size() {
+      return forward ? compact.outDegree(vertex) : compact.inDegree(vertex);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      if(!(o instanceof String)) {
+        return false;
+      }
+      int other = compact.indexOf((String) o);
+      if(other < 0) {
+        return false;
+      }
+      return forward ? compact.hasEdge(vertex, other) : compact.hasEdge(other, vertex);
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+      return new Iterator<String>() {
+        private int i = 0;
+
+        public boolean hasNext() {
+          return i < size();
+        }
+
+        public String next() {
+          if(!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          int other = forward ? compact.outNeighbor(vertex, i) : compact.inNeighbor(vertex, i);
+          i++;
+          return compact.getID(other);
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,252 @@
+package cazgraphs.graph.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the weakly connected components of a DirectedGraph as it
+ * is edited, using a union-find structure over dense vertex indices.
+ * Adding vertices and edges updates the components in near-constant time.
+ * Removing vertices or edges can split a component, which union-find can't
+ * express, so those changes cause the components to be rebuilt the next
+ * time they are queried.
+ */
+public class ComponentTracker implements GraphListener {
+
+  /** The graph being tracked. */
+  private DirectedGraph graph;
+
+  /** The dense index of each vertex. */
+  private Map<String, Integer> index = new HashMap<>();
+
+  /** The vertex at each index. */
+  private List<String> ids = new ArrayList<>();
+
+  /** The parent of each index in the union-find forest. Roots are their own parents. */
+  private int[] parent = new int[16];
+
+  /** For each root, the number of vertices in its component. */
+  private int[] size = new int[16];
+
+  /** The number of components. */
+  private int numComponents = 0;
+
+  /** Whether the components must be rebuilt before they are next used. */
+  private boolean stale = false;
+
+  /** The most recent result of getComponents. Null if it must be recomputed. */
+  private List<Set<String>> components = null;
+
+
+  /** Creates the component tracker for a graph and begins listening to it for changes. */
+  public ComponentTracker(DirectedGraph graph) {
+    this.graph = graph;
+    _rebuild();
+    graph.addGraphListener(this);
+  }
+
+  /** Stops listening to the graph. The tracker shouldn't be used after this. */
+  public void detach() {
+    graph.removeGraphListener(this);
+  }
+
+  /** Returns the graph being tracked. */
+  public DirectedGraph getGraph() {
+    return graph;
+  }
+
+
+  //////// Queries
+
+  /** Returns the number of connected components in the graph. */
+  public int getComponentCount() {
+    _refresh();
+    return numComponents;
+  }
+
+  /** Returns the number of vertices in the component containing a vertex, or 0 if the vertex isn't in the graph. */
+  public int getComponentSize(String vertexID) {
+    _refresh();
+    Integer i = index.get(vertexID);
+    if(i == null) {
+      return 0;
+    }
+    return size[_find(i)];
+  }
+
+  /** Returns the sizes of all the components, in the same order as getComponents. */
+  public int[] getComponentSizes() {
+    List<Set<String>> comps = getComponents();
+    int[] result = new int[comps.size()];
+    for(int i = 0; i < result.length; i++) {
+      result[i] = comps.get(i).size();
+    }
+    return result;
+  }
+
+  /** Returns true iff two vertices are in the same connected component. */
+  public boolean isConnected(String a, String b) {
+    _refresh();
+    Integer i = index.get(a);
+    Integer j = index.get(b);
+    if(i == null || j == null) {
+      return false;
+    }
+    return _find(i) == _find(j);
+  }
+
+  /**
+   * Returns the connected components of the graph. The result is read-only
+   * and is reused until the graph next changes.
+   */
+  public List<Set<String>> getComponents() {
+    _refresh();
+    if(components != null) {
+      return components;
+    }
+
+    Map<Integer, Set<String>> byRoot = new HashMap<>();
+    List<Set<String>> result = new ArrayList<>(numComponents);
+    for(int i = 0; i < ids.size(); i++) {
+      int root = _find(i);
+      Set<String> component = byRoot.get(root);
+      if(component == null) {
+        component = new HashSet<>(size[root]*4/3 + 1);
+        byRoot.put(root, component);
+        result.add(component);
+      }
+      component.add(ids.get(i));
+    }
+
+    for(int i = 0; i < result.size(); i++) {
+      result.set(i, Collections.unmodifiableSet(result.get(i)));
+    }
+    components = Collections.unmodifiableList(result);
+    return components;
+  }
+
+
+  //////// GraphListener
+
+  public void vertexAdded(String vertexID) {
+    if(stale) {
+      return;
+    }
+    components = null;
+
+    // Re-adding an existing vertex replaces its edges wholesale.
+    if(index.containsKey(vertexID)) {
+      stale = true;
+      return;
+    }
+    _add(vertexID);
+  }
+
+  public void vertexRemoved(String vertexID) {
+    stale = true;
+  }
+
+  public void edgeAdded(String from, String to) {
+    if(stale) {
+      return;
+    }
+    if(_union(index.get(from), index.get(to))) {
+      components = null;
+    }
+  }
+
+  public void edgeRemoved(String from, String to) {
+    stale = true;
+  }
+
+  public void graphChanged() {
+    stale = true;
+  }
+
+
+  //////// Union-find
+
+  /** Gives a vertex the next index as a component of its own. */
+  private void _add(String vertexID) {
+    int i = ids.size();
+    if(i == parent.length) {
+      parent = Arrays.copyOf(parent, i*2);
+      size = Arrays.copyOf(size, i*2);
+    }
+    parent[i] = i;
+    size[i] = 1;
+    index.put(vertexID, i);
+    ids.add(vertexID);
+    numComponents++;
+  }
+
+  /** Returns the root of an index's component, halving the path along the way. */
+  private int _find(int i) {
+    while(parent[i] != i) {
+      parent[i] = parent[parent[i]];
+      i = parent[i];
+    }
+    return i;
+  }
+
+  /** Merges the components of two indices. Returns false if they were already the same. */
+  private boolean _union(int i, int j) {
+    int a = _find(i);
+    int b = _find(j);
+    if(a == b) {
+      return false;
+    }
+
+    // Hang the smaller tree under the larger.
+    if(size[a] < size[b]) {
+      int tmp = a;
+      a = b;
+      b = tmp;
+    }
+    parent[b] = a;
+    size[a] += size[b];
+    numComponents--;
+    return true;
+  }
+
+
+  //////// Rebuilding
+
+  /** Rebuilds the components if a change couldn't be handled incrementally. */
+  private void _refresh() {
+    if(stale) {
+      _rebuild();
+    }
+  }
+
+  /** Computes the components from scratch. */
+  private void _rebuild() {
+    index.clear();
+    ids.clear();
+    numComponents = 0;
+    stale = false;
+    components = null;
+
+    Set<String> vertexIDs = graph.getVertexIDs();
+    if(parent.length < vertexIDs.size()) {
+      parent = new int[vertexIDs.size()];
+      size = new int[vertexIDs.size()];
+    }
+    for(String id : vertexIDs) {
+      _add(id);
+    }
+
+    for(String from : vertexIDs) {
+      int i = index.get(from);
+      for(String to : graph.getEdges(from)) {
+        _union(i, index.get(to));
+      }
+    }
+  }
+}
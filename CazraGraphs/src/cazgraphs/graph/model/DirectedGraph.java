@@ -9,6 +9,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.function.Consumer;
 
 import cazgraphs.CazgraphException;
 
@@ -36,6 +37,18 @@ public class DirectedGraph {
   /** The attributes for the edges of the graph. */
   private Map<String, Map<String, Map<String, String>>> edgeAttributes;
   
+  /** Incremented every time a vertex or edge is added or removed. */
+  private long modificationStamp = 0;
+  
+  /** The listeners notified of changes to the graph's structure. */
+  private List<GraphListener> listeners = new ArrayList<>();
+  
+  /** The graph's online topological order, created the first time it is asked for. */
+  private OnlineTopologicalOrder topoOrder = null;
+  
+  /** The graph's connected components, created the first time they are asked for. */
+  private ComponentTracker components = null;
+  
   /** Creates an empty directed graph. */
   public DirectedGraph() {
     graphAttributes = new HashMap<>();
@@ -58,8 +71,59 @@ public class DirectedGraph {
   
   /** Removes all vertices from the graph. */
   public void clear() {
-    removeAllEdges();
     vertices.clear();
+    vertexAttributes.clear();
+    edges.clear();
+    backEdges.clear();
+    edgeAttributes.clear();
+    modificationStamp++;
+    
+    for(GraphListener listener : listeners) {
+      listener.graphChanged();
+    }
+  }
+  
+  
+  /** 
+   * Returns a number that changes every time a vertex or edge is added to or 
+   * removed from this graph. Results computed from the graph's structure 
+   * stay valid for as long as this returns the same value.
+   */
+  public long getModificationStamp() {
+    return modificationStamp;
+  }
+  
+  
+  /** Adds a listener to be notified of changes to the graph's structure. */
+  public void addGraphListener(GraphListener listener) {
+    listeners.add(listener);
+  }
+  
+  /** Removes a listener. */
+  public void removeGraphListener(GraphListener listener) {
+    listeners.remove(listener);
+  }
+  
+  /** 
+   * Returns the topological order kept up to date with this graph. 
+   * There is only one per graph, so everything viewing the graph shares it.
+   */
+  public OnlineTopologicalOrder getTopologicalOrder() {
+    if(topoOrder == null) {
+      topoOrder = new OnlineTopologicalOrder(this);
+    }
+    return topoOrder;
+  }
+  
+  /** 
+   * Returns the connected components kept up to date with this graph. 
+   * There is only one per graph, so everything viewing the graph shares it.
+   */
+  public ComponentTracker getComponentTracker() {
+    if(components == null) {
+      components = new ComponentTracker(this);
+    }
+    return components;
   }
   
   
@@ -152,6 +216,11 @@ public class DirectedGraph {
     edges.put(id, new HashSet<String>());
     backEdges.put(id, new HashSet<String>());
     edgeAttributes.put(id, new HashMap<String, Map<String, String>>());
+    modificationStamp++;
+    
+    for(GraphListener listener : listeners) {
+      listener.vertexAdded(id);
+    }
   }
   
   
@@ -160,7 +229,14 @@ public class DirectedGraph {
     removeAllEdges(id);
     vertices.remove(id);
     vertexAttributes.remove(id);
+    edges.remove(id);
+    backEdges.remove(id);
     edgeAttributes.remove(id);
+    modificationStamp++;
+    
+    for(GraphListener listener : listeners) {
+      listener.vertexRemoved(id);
+    }
   }
   
   
@@ -198,6 +274,16 @@ public class DirectedGraph {
     }
   }
   
+  /** Returns the names of the attributes that have been set for a vertex. */
+  public Set<String> getVertexAttributeNames(String vertexID) {
+    if(!vertices.containsKey(vertexID)) {
+      throw new CazgraphException("Vertex " + vertexID + " doesn't exist.");
+    }
+    else {
+      return Collections.unmodifiableSet(vertexAttributes.get(vertexID).keySet());
+    }
+  }
+  
   /** Sets some attribute for a vertex. */
   public void getVertexAttribute(String vertexID, String attrName, String value) {
     if(!vertices.containsKey(vertexID)) {
@@ -245,6 +331,53 @@ public class DirectedGraph {
     return result;
   }
   
+  
+  /** Returns the size of getNeighbors(vertexID), without building the set. */
+  public int getNeighborCount(String vertexID) {
+    Set<String> forward = getEdges(vertexID);
+    int count = forward.size();
+    for(String from : getBackwardEdges(vertexID)) {
+      if(!forward.contains(from)) {
+        count++;
+      }
+    }
+    return count;
+  }
+  
+  
+  /** 
+   * Passes the target of each of a vertex's forward edges to a visitor, 
+   * without copying the edges. The visitor must not modify the graph.
+   */
+  public void forEachOutEdge(String vertexID, Consumer<String> visitor) {
+    getEdges(vertexID).forEach(visitor);
+  }
+  
+  
+  /** 
+   * Passes the source of each of a vertex's backward edges to a visitor, 
+   * without copying the edges. The visitor must not modify the graph.
+   */
+  public void forEachInEdge(String vertexID, Consumer<String> visitor) {
+    getBackwardEdges(vertexID).forEach(visitor);
+  }
+  
+  
+  /** 
+   * Passes each vertex in getNeighbors(vertexID) to a visitor exactly once, 
+   * without building the set. The forward edges' targets are visited first. 
+   * The visitor must not modify the graph.
+   */
+  public void forEachNeighbor(String vertexID, Consumer<String> visitor) {
+    Set<String> forward = getEdges(vertexID);
+    forward.forEach(visitor);
+    for(String from : getBackwardEdges(vertexID)) {
+      if(!forward.contains(from)) {
+        visitor.accept(from);
+      }
+    }
+  }
+  
   /** Adds a directed edge to the graph. */
   public void addEdge(String from, String to) {
     if(from == null || to == null) {
@@ -263,7 +396,7 @@ public class DirectedGraph {
     if(!edges.containsKey(from)) {
       edges.put(from, new HashSet<String>());
     }
-    edges.get(from).add(to);
+    boolean isNew = edges.get(from).add(to);
     
     // Create the corresponding backward edge.
     if(!backEdges.containsKey(to)) {
@@ -273,13 +406,22 @@ public class DirectedGraph {
     
     // Construct the attributes map for the edge. 
     edgeAttributes.get(from).put(to, new HashMap<String, String>());
+    
+    // Re-adding an existing edge doesn't change the graph's structure.
+    if(isNew) {
+      modificationStamp++;
+      for(GraphListener listener : listeners) {
+        listener.edgeAdded(from, to);
+      }
+    }
   }
   
   
   /** Removes a directed edge from the graph if it exists. */
   public void removeEdge(String from, String to) {
+    boolean removed = false;
     if(edges.containsKey(from)) {
-      edges.get(from).remove(to);
+      removed = edges.get(from).remove(to);
       edgeAttributes.get(from).remove(to);
     }
     
@@ -287,14 +429,33 @@ public class DirectedGraph {
       backEdges.get(to).remove(from);
       edgeAttributes.get(to).remove(from);
     }
+    
+    if(removed) {
+      modificationStamp++;
+      for(GraphListener listener : listeners) {
+        listener.edgeRemoved(from, to);
+      }
+    }
   }
   
   
   /** Removes all edges in this graph. */
   public void removeAllEdges() {
-    edges.clear();
-    backEdges.clear();
-    edgeAttributes.clear();
+    // Keep each vertex's (now empty) edge sets, since the vertices remain.
+    for(Set<String> forward : edges.values()) {
+      forward.clear();
+    }
+    for(Set<String> backward : backEdges.values()) {
+      backward.clear();
+    }
+    for(Map<String, Map<String, String>> attrs : edgeAttributes.values()) {
+      attrs.clear();
+    }
+    modificationStamp++;
+    
+    for(GraphListener listener : listeners) {
+      listener.graphChanged();
+    }
   }
   
   
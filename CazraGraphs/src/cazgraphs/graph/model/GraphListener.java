@@ -0,0 +1,24 @@
+package cazgraphs.graph.model;
+
+/**
+ * An interface for objects that are notified when the structure of a
+ * DirectedGraph changes. Each method is called after the change has been
+ * made to the graph. Listeners must not modify the graph from these methods.
+ */
+public interface GraphListener {
+
+  /** Called when a vertex is added to the graph, or an existing vertex is replaced. */
+  public void vertexAdded(String vertexID);
+
+  /** Called when a vertex is removed from the graph, after its edges have been removed. */
+  public void vertexRemoved(String vertexID);
+
+  /** Called when an edge that wasn't already in the graph is added. */
+  public void edgeAdded(String from, String to);
+
+  /** Called when an edge that was in the graph is removed. */
+  public void edgeRemoved(String from, String to);
+
+  /** Called after a bulk change that isn't described by the other methods, such as removing all the edges. */
+  public void graphChanged();
+}
@@ -0,0 +1,351 @@
+package cazgraphs.graph.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cazgraphs.CazgraphException;
+
+/**
+ * Maintains a topological order of a DirectedGraph as edges are inserted,
+ * using the dynamic algorithm of Pearce and Kelly. Inserting an edge that
+ * agrees with the current order costs O(1). Otherwise only the vertices
+ * between the edge's endpoints in the order that are reachable from them
+ * are visited and reordered, rather than the whole graph.
+ * The order is attached to its graph as a GraphListener, so it stays current
+ * as the graph is edited. Changes that can't be handled incrementally, such
+ * as removing an edge from a cyclic graph, cause the order to be rebuilt
+ * the next time it is queried.
+ */
+public class OnlineTopologicalOrder implements GraphListener {
+
+  /** The graph being ordered. */
+  private DirectedGraph graph;
+
+  /** The position of each vertex in the order. */
+  private Map<String, Integer> ord = new HashMap<>();
+
+  /** The vertex at each position in the order. Removed vertices leave null holes. */
+  private List<String> atPos = new ArrayList<>();
+
+  /** The number of holes in atPos. */
+  private int holes = 0;
+
+  /** Whether the graph currently contains a cycle. */
+  private boolean cyclic = false;
+
+  /** Whether the order must be rebuilt from scratch before it is next used. */
+  private boolean stale = false;
+
+
+  /** Creates the topological order for a graph and begins listening to it for changes. */
+  public OnlineTopologicalOrder(DirectedGraph graph) {
+    this.graph = graph;
+    _rebuild();
+    graph.addGraphListener(this);
+  }
+
+  /** Stops listening to the graph. The order shouldn't be used after this. */
+  public void detach() {
+    graph.removeGraphListener(this);
+  }
+
+  /** Returns the graph being ordered. */
+  public DirectedGraph getGraph() {
+    return graph;
+  }
+
+
+  //////// Queries
+
+  /** Returns true iff the graph contains no cycles. */
+  public boolean isAcyclic() {
+    _refresh();
+    return !cyclic;
+  }
+
+  /**
+   * Returns true iff adding an edge from one vertex to another would create
+   * a cycle in the graph, or the graph already contains one.
+   * The graph is not modified.
+   */
+  public boolean wouldCreateCycle(String from, String to) {
+    _refresh();
+    if(cyclic || from.equals(to)) {
+      return true;
+    }
+    if(!ord.containsKey(from) || !ord.containsKey(to)) {
+      return false;
+    }
+
+    // In an acyclic graph, every path visits vertices in increasing order,
+    // so only vertices between the endpoints can lie on a path from to to from.
+    int ub = ord.get(from);
+    if(ord.get(to) > ub) {
+      return false;
+    }
+    return _searchForward(to, ub, new HashSet<String>());
+  }
+
+  /**
+   * Returns the vertices of the graph in topological order.
+   * A CazgraphException is thrown if the graph contains a cycle.
+   */
+  public List<String> getOrder() {
+    _refresh();
+    if(cyclic) {
+      throw new CazgraphException("A graph containing a cycle has no topological order.");
+    }
+
+    List<String> result = new ArrayList<>(ord.size());
+    for(String id : atPos) {
+      if(id != null) {
+        result.add(id);
+      }
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  /**
+   * Returns a position for the vertex such that, if the graph is acyclic,
+   * every edge goes from a lower position to a higher one.
+   * Positions need not be contiguous. Returns -1 if the vertex isn't in the graph.
+   */
+  public int getPosition(String vertexID) {
+    _refresh();
+    Integer pos = ord.get(vertexID);
+    if(pos == null) {
+      return -1;
+    }
+    return pos;
+  }
+
+
+  //////// GraphListener
+
+  public void vertexAdded(String vertexID) {
+    if(stale) {
+      return;
+    }
+
+    // Re-adding an existing vertex replaces its edges wholesale.
+    if(ord.containsKey(vertexID)) {
+      stale = true;
+      return;
+    }
+
+    // A new vertex has no edges, so it can go anywhere.
+    ord.put(vertexID, atPos.size());
+    atPos.add(vertexID);
+  }
+
+  public void vertexRemoved(String vertexID) {
+    if(stale) {
+      return;
+    }
+
+    // Removing a vertex may break a cycle.
+    if(cyclic) {
+      stale = true;
+      return;
+    }
+
+    Integer pos = ord.remove(vertexID);
+    if(pos != null) {
+      atPos.set(pos, null);
+      holes++;
+      if(holes > atPos.size()/2) {
+        _compact();
+      }
+    }
+  }
+
+  public void edgeAdded(String from, String to) {
+    if(stale || cyclic) {
+      return;
+    }
+    if(from.equals(to)) {
+      cyclic = true;
+      return;
+    }
+
+    int lb = ord.get(to);
+    int ub = ord.get(from);
+    if(lb > ub) {
+      return;
+    }
+
+    // Find the vertices in the affected region reachable from to.
+    // If from is among them, the new edge closes a cycle.
+    Set<String> visitedF = new HashSet<>();
+    if(_searchForward(to, ub, visitedF)) {
+      cyclic = true;
+      return;
+    }
+
+    // Find the vertices in the affected region that reach from.
+    Set<String> visitedB = new HashSet<>();
+    _searchBackward(from, lb, visitedB);
+
+    _reorder(visitedB, visitedF);
+  }
+
+  public void edgeRemoved(String from, String to) {
+    // Removing an edge never invalidates a topological order,
+    // but it may break a cycle.
+    if(cyclic) {
+      stale = true;
+    }
+  }
+
+  public void graphChanged() {
+    stale = true;
+  }
+
+
+  //////// Pearce-Kelly
+
+  /**
+   * Collects the vertices reachable from start whose positions are less than ub.
+   * Returns true if a vertex at position ub is reached.
+   */
+  private boolean _searchForward(String start, int ub, Set<String> visited) {
+    Deque<String> stack = new ArrayDeque<>();
+    visited.add(start);
+    stack.push(start);
+
+    while(!stack.isEmpty()) {
+      String v = stack.pop();
+      for(String w : graph.getEdges(v)) {
+        int pos = ord.get(w);
+        if(pos == ub) {
+          return true;
+        }
+        if(pos < ub && visited.add(w)) {
+          stack.push(w);
+        }
+      }
+    }
+    return false;
+  }
+
+  /** Collects the vertices that reach start whose positions are greater than lb. */
+  private void _searchBackward(String start, int lb, Set<String> visited) {
+    Deque<String> stack = new ArrayDeque<>();
+    visited.add(start);
+    stack.push(start);
+
+    while(!stack.isEmpty()) {
+      String v = stack.pop();
+      for(String w : graph.getBackwardEdges(v)) {
+        if(ord.get(w) > lb && visited.add(w)) {
+          stack.push(w);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reassigns the positions held by the affected vertices so that all the
+   * vertices reaching the new edge's source come before all the vertices
+   * reachable from its target, preserving the relative order within each group.
+   */
+  private void _reorder(Set<String> deltaB, Set<String> deltaF) {
+    List<String> moved = new ArrayList<>(deltaB.size() + deltaF.size());
+    moved.addAll(_sortByPosition(deltaB));
+    moved.addAll(_sortByPosition(deltaF));
+
+    int[] positions = new int[moved.size()];
+    for(int i = 0; i < positions.length; i++) {
+      positions[i] = ord.get(moved.get(i));
+    }
+    Arrays.sort(positions);
+
+    for(int i = 0; i < positions.length; i++) {
+      String id = moved.get(i);
+      ord.put(id, positions[i]);
+      atPos.set(positions[i], id);
+    }
+  }
+
+  /** Returns the vertices in a set sorted by their current positions. */
+  private List<String> _sortByPosition(Set<String> vertices) {
+    List<String> result = new ArrayList<>(vertices);
+    result.sort((a, b) -> Integer.compare(ord.get(a), ord.get(b)));
+    return result;
+  }
+
+
+  //////// Rebuilding
+
+  /** Rebuilds the order if a change couldn't be handled incrementally. */
+  private void _refresh() {
+    if(stale) {
+      _rebuild();
+    }
+  }
+
+  /** Computes the order from scratch using Kahn's algorithm. */
+  private void _rebuild() {
+    ord.clear();
+    atPos.clear();
+    holes = 0;
+    stale = false;
+
+    Map<String, Integer> inDegree = new HashMap<>();
+    Deque<String> ready = new ArrayDeque<>();
+    for(String id : graph.getVertexIDs()) {
+      int degree = graph.getBackwardEdges(id).size();
+      inDegree.put(id, degree);
+      if(degree == 0) {
+        ready.add(id);
+      }
+    }
+
+    while(!ready.isEmpty()) {
+      String v = ready.poll();
+      ord.put(v, atPos.size());
+      atPos.add(v);
+
+      for(String w : graph.getEdges(v)) {
+        int degree = inDegree.get(w) - 1;
+        inDegree.put(w, degree);
+        if(degree == 0) {
+          ready.add(w);
+        }
+      }
+    }
+
+    // Any vertices left over lie on or after a cycle.
+    // Give them positions anyway so that queries about them still work.
+    cyclic = (atPos.size() < inDegree.size());
+    if(cyclic) {
+      for(String id : inDegree.keySet()) {
+        if(!ord.containsKey(id)) {
+          ord.put(id, atPos.size());
+          atPos.add(id);
+        }
+      }
+    }
+  }
+
+  /** Removes the holes left by removed vertices. */
+  private void _compact() {
+    List<String> compacted = new ArrayList<>(ord.size());
+    for(String id : atPos) {
+      if(id != null) {
+        ord.put(id, compacted.size());
+        compacted.add(id);
+      }
+    }
+    atPos = compacted;
+    holes = 0;
+  }
+}
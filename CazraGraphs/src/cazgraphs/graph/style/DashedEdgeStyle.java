@@ -56,6 +56,26 @@ public class DashedEdgeStyle extends EdgeStyle {
 
   
   public void drawLine(Graphics2D g, double startX, double startY, double endX, double endY) {
+    Path2D path = new Path2D.Double();
+    appendLine(path, startX, startY, endX, endY);
+    g.draw(path);
+  }
+  
+  
+  
+  public void drawArrowHead(Graphics2D g, double x, double y, double angle) {
+    Path2D path = new Path2D.Double();
+    appendArrowHead(path, x, y, angle);
+    g.draw(path);
+  }
+  
+  
+  public boolean isBatchable() {
+    return true;
+  }
+  
+  
+  public void appendLine(Path2D path, double startX, double startY, double endX, double endY) {
     double angle = GameMath.angleTo(startX, startY, endX, endY);
     
     double segDX = segmentLength*GameMath.cos(angle);
@@ -78,8 +98,8 @@ public class DashedEdgeStyle extends EdgeStyle {
         y = prevY;
       }
       else {
-        Line2D line = new Line2D.Double(prevX, prevY, x, y);
-        g.draw(line);
+        path.moveTo(prevX, prevY);
+        path.lineTo(x, y);
         
         x += gapDX;
         y += gapDY;
@@ -88,27 +108,6 @@ public class DashedEdgeStyle extends EdgeStyle {
   }
   
   
-  
-  public void drawArrowHead(Graphics2D g, double x, double y, double angle) {
-    double backAngle1 = angle + 160;
-    double backAngle2 = angle - 160;
-    double length = 16;
-    
-    double endX, endY;
-    Line2D line;
-    
-    endX = x + length*GameMath.cos(backAngle1);
-    endY = y - length*GameMath.sin(backAngle1);
-    line = new Line2D.Double(x, y, endX, endY);
-    g.draw(line);
-    
-    endX = x + length*GameMath.cos(backAngle2);
-    endY = y - length*GameMath.sin(backAngle2);
-    line = new Line2D.Double(x, y, endX, endY);
-    g.draw(line);
-  }
-  
-  
   public void drawLabel(Graphics2D g, double startX, double startY, double endX, double endY) {
     AffineTransform origT = g.getTransform();
     
@@ -6,6 +6,7 @@ import java.awt.geom.*;
 import pwnee.Camera;
 import pwnee.GameMath;
 
+import cazgraphs.graph.EdgeBatch;
 import cazgraphs.graph.VertexSprite;
 
 /** Defines how an edge in a graph should be drawn. */
@@ -30,7 +31,7 @@ public abstract class EdgeStyle {
       double x1 = edgeCenter.getX() - 20;
       double y1 = edgeCenter.getY() - 20;
       double dia = 40;
-      g.setStroke(new BasicStroke(n1.getGraph().getStyle().getEdgeThickness(n1, n2)));
+      g.setStroke(EdgeBatch.getStroke(n1.getGraph().getStyle().getEdgeThickness(n1, n2)));
       g.setColor(n1.getGraph().getStyle().getEdgeColor(n1, n2));
       
       Shape selfEdge = new Ellipse2D.Double(x1, y1, dia, dia);
@@ -46,16 +47,14 @@ public abstract class EdgeStyle {
     else {
     
       // Compute the endpoints of the edge based on the nodes' shapes.
-      double angle = GameMath.angleTo(n1.x, n1.y, n2.x, n2.y);
-      Point2D startPt = n1.getPointOnShape(angle);
-      Point2D endPt = n2.getPointOnShape(angle + 180);
-      double startX = startPt.getX();
-      double startY = startPt.getY();
-      double endX = endPt.getX();
-      double endY = endPt.getY();
-      angle = GameMath.angleTo(startX, startY, endX, endY);
+      double[] ends = _getEndpoints(n1, n2);
+      double startX = ends[0];
+      double startY = ends[1];
+      double endX = ends[2];
+      double endY = ends[3];
+      double angle = GameMath.angleTo(startX, startY, endX, endY);
       
-      g.setStroke(new BasicStroke(n1.getGraph().getStyle().getEdgeThickness(n1, n2)));
+      g.setStroke(EdgeBatch.getStroke(n1.getGraph().getStyle().getEdgeThickness(n1, n2)));
       g.setColor(n1.getGraph().getStyle().getEdgeColor(n1, n2));
       
       // Draw the line.
@@ -77,6 +76,19 @@ public abstract class EdgeStyle {
   }
   
   
+  /** 
+   * Returns the start and end points of the edge from n1 to n2, as 
+   * {startX, startY, endX, endY}, where the line between the nodes' 
+   * centers crosses their shapes. 
+   */
+  private double[] _getEndpoints(VertexSprite n1, VertexSprite n2) {
+    double angle = GameMath.angleTo(n1.x, n1.y, n2.x, n2.y);
+    Point2D startPt = n1.getPointOnShape(angle);
+    Point2D endPt = n2.getPointOnShape(angle + 180);
+    return new double[] {startPt.getX(), startPt.getY(), endPt.getX(), endPt.getY()};
+  }
+  
+  
   /** 
    * Draws the line component of the edge, given its start and 
    * end points in graph coordinates. 
@@ -97,6 +109,89 @@ public abstract class EdgeStyle {
   
   
   
+  //////// Batched drawing
+  
+  /** 
+   * Returns true iff this style's edges can be drawn by appending them to a 
+   * path shared with other edges of the same color and thickness, using 
+   * appendEdge. Styles returning true must override appendLine and 
+   * appendArrowHead to match drawLine and drawArrowHead.
+   */
+  public boolean isBatchable() {
+    return false;
+  }
+  
+  
+  /** 
+   * Appends the shape of the edge from n1 to n2, without its label, to a 
+   * path in the GraphSprite's geometric space. 
+   */
+  public void appendEdge(Path2D path, VertexSprite n1, VertexSprite n2) {
+    // Edge to self.
+    if(n1 == n2) {
+      Point2D edgeCenter = n1.getPointOnShape(135);
+      path.append(new Ellipse2D.Double(edgeCenter.getX() - 20, edgeCenter.getY() - 20, 40, 40), false);
+    }
+    
+    // Edge to other
+    else {
+      double[] ends = _getEndpoints(n1, n2);
+      double angle = GameMath.angleTo(ends[0], ends[1], ends[2], ends[3]);
+      
+      appendLine(path, ends[0], ends[1], ends[2], ends[3]);
+      appendArrowHead(path, ends[2], ends[3], angle);
+      if(n2.hasEdge(n1.getID())) {
+        appendArrowHead(path, ends[0], ends[1], angle + 180);
+      }
+    }
+  }
+  
+  
+  /** 
+   * Appends the line component of the edge to a path, given its start and 
+   * end points in graph coordinates. 
+   */
+  public void appendLine(Path2D path, double startX, double startY, double endX, double endY) {
+    path.moveTo(startX, startY);
+    path.lineTo(endX, endY);
+  }
+  
+  
+  /** 
+   * Appends an arrowhead component of the edge to a path, given its point's 
+   * position in graph coordinates and the angle of its direction.
+   */
+  public void appendArrowHead(Path2D path, double x, double y, double angle) {
+    double length = 16;
+    
+    path.moveTo(x, y);
+    path.lineTo(x + length*GameMath.cos(angle + 160), y - length*GameMath.sin(angle + 160));
+    path.moveTo(x, y);
+    path.lineTo(x + length*GameMath.cos(angle - 160), y - length*GameMath.sin(angle - 160));
+  }
+  
+  
+  /** 
+   * Draws only the label of the edge from n1 to n2, if it has one, in the 
+   * graph's current color. 
+   */
+  public void drawLabel(Graphics2D g, VertexSprite n1, VertexSprite n2) {
+    if(!hasLabel()) {
+      return;
+    }
+    
+    if(n1 == n2) {
+      Point2D edgeCenter = n1.getPointOnShape(135);
+      g.drawString(label, (int) edgeCenter.getX(), (int) (edgeCenter.getY() - 20));
+    }
+    else {
+      double[] ends = _getEndpoints(n1, n2);
+      drawLabel(g, ends[0], ends[1], ends[2], ends[3]);
+    }
+  }
+  
+  
+  
   /** 
    * Returns true iff this edge is labeled.
    */
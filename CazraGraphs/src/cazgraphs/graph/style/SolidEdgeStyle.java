@@ -39,27 +39,23 @@ public class SolidEdgeStyle extends EdgeStyle {
   
   
   public void drawArrowHead(Graphics2D g, double x, double y, double angle) {
+    Path2D path = new Path2D.Double();
+    appendArrowHead(path, x, y, angle);
+    g.draw(path);
+  }
+  
+  
+  public boolean isBatchable() {
+    return true;
+  }
+  
+  
+  public void appendArrowHead(Path2D path, double x, double y, double angle) {
     // skip drawing if too small due to camera zoom.
     if(camera != null && camera.zoom  < 2.0/10) {
       return;
     }
-    
-    double backAngle1 = angle + 160;
-    double backAngle2 = angle - 160;
-    double length = 16;
-    
-    double endX, endY;
-    Line2D line;
-    
-    endX = x + length*GameMath.cos(backAngle1);
-    endY = y - length*GameMath.sin(backAngle1);
-    line = new Line2D.Double(x, y, endX, endY);
-    g.draw(line);
-    
-    endX = x + length*GameMath.cos(backAngle2);
-    endY = y - length*GameMath.sin(backAngle2);
-    line = new Line2D.Double(x, y, endX, endY);
-    g.draw(line);
+    super.appendArrowHead(path, x, y, angle);
   }
   
   
@@ -38,7 +38,7 @@ public abstract class VertexStyle {
     
     // draw the outline
     Stroke origStroke = g.getStroke();
-    g.setStroke(new BasicStroke(gStyle.getEdgeThickness(node, node)));
+    g.setStroke(EdgeBatch.getStroke(gStyle.getEdgeThickness(node, node)));
     
     g.setColor(gStyle.getVertexStrokeColor(node));
     g.draw(shape);
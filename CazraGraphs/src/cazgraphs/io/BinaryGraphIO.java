@@ -0,0 +1,448 @@
+package cazgraphs.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import cazgraphs.CazgraphException;
+import cazgraphs.graph.GraphSprite;
+import cazgraphs.graph.model.CompactDirectedGraph;
+import cazgraphs.graph.model.DirectedGraph;
+import cazgraphs.graph.model.UndirectedGraph;
+
+/**
+ * This class reads and writes graphs in the compact CazGraphs binary format.
+ * Files in this format are read with a single bulk read and decoded
+ * without any text parsing, so large graphs open much faster than they do
+ * from the text formats.
+ * <br/>All fixed-size numbers are big-endian. Varints are unsigned LEB128:
+ * 7 bits per byte, least significant group first, with the high bit set on
+ * every byte but the last. Strings are a varint byte length followed by
+ * that many bytes of UTF-8. A file consists of:
+ * <br/>The header: the magic bytes "CZGB", an int version number, an int of
+ * flags (bit 0 is set for undirected graphs), the int number of vertices,
+ * and the int number of edge records.
+ * <br/>The string table: the vertex IDs as strings, in sorted order. A
+ * vertex's index is its position in this table.
+ * <br/>The adjacency lists: for each vertex in order, a varint count of its
+ * edges followed by the indices of their target vertices in ascending
+ * order. The first index is stored as a varint, and each index after it is
+ * stored as the varint difference from the one before it. In undirected
+ * graphs, each edge is only stored in the list of its lower-indexed vertex.
+ * <br/>The attribute columns: a varint count of columns, each of which is
+ * an attribute name string followed by one value string per vertex.
+ * An empty value means the vertex doesn't have the attribute.
+ */
+public class BinaryGraphIO extends GraphIO {
+
+  /** The magic bytes at the start of every file: "CZGB". */
+  private static final int MAGIC = 0x435A4742;
+
+  private static final int VERSION = 1;
+
+  private static final int FLAG_UNDIRECTED = 1;
+
+  /** The size of the buffer used to write graph files. */
+  private static final int BUFFER_SIZE = 1 << 16;
+
+
+  private static BinaryGraphIO instance = null;
+
+
+  /** Returns the singleton instance of this class. */
+  public static BinaryGraphIO getInstance() {
+    if(instance == null) {
+      instance = new BinaryGraphIO();
+    }
+    return instance;
+  }
+
+
+  /** The default file extension for CazGraph binary files is "cgb". */
+  public static String defaultFileExtension() {
+    return "cgb";
+  }
+
+
+  public String getDefaultFileExtension() {
+    return defaultFileExtension();
+  }
+
+
+
+  //////// Loading
+
+  /** Reads a graph sprite from a binary graph file. */
+  public GraphSprite loadFromPath(Path path) {
+    return new GraphSprite(loadGraphFromPath(path));
+  }
+
+
+  /**
+   * Reads the model of a graph from a binary graph file, without creating
+   * any sprites for it. Vertex attributes are restored, and each vertex
+   * stores its own ID as its object.
+   */
+  public DirectedGraph loadGraphFromPath(Path path) {
+    return loadGraphFromBuffer(_read(path));
+  }
+
+
+  /** Reads the model of a graph from a buffer holding a binary graph file. */
+  public DirectedGraph loadGraphFromBuffer(ByteBuffer buffer) {
+    try {
+      Header header = _readHeader(buffer);
+      DirectedGraph graph = header.undirected ? new UndirectedGraph() : new DirectedGraph();
+
+      String[] ids = _readStrings(buffer, header.numVertices);
+      for(String id : ids) {
+        graph.addVertex(id, id);
+      }
+
+      int[] targets = new int[0];
+      for(int v = 0; v < ids.length; v++) {
+        targets = _readAdjacency(buffer, header, v, targets);
+        int degree = targets[0];
+        for(int i = 1; i <= degree; i++) {
+          graph.addEdge(ids[v], ids[targets[i]]);
+        }
+      }
+
+      int numColumns = _readVarint(buffer);
+      for(int c = 0; c < numColumns; c++) {
+        String attrName = _readString(buffer);
+        for(int v = 0; v < ids.length; v++) {
+          String value = _readString(buffer);
+          if(!value.isEmpty()) {
+            graph.getVertexAttribute(ids[v], attrName, value);
+          }
+        }
+      }
+
+      return graph;
+    }
+    catch(BufferUnderflowException e) {
+      throw new CazgraphException("Binary graph data is truncated.", e);
+    }
+  }
+
+
+  /**
+   * Reads a binary graph file into a CompactDirectedGraph. This skips the
+   * hash maps of a DirectedGraph altogether, so it is the fastest way to
+   * load a large graph for analysis. Attribute columns are not read.
+   */
+  public CompactDirectedGraph loadCompact(Path path) {
+    ByteBuffer buffer = _read(path);
+    try {
+      Header header = _readHeader(buffer);
+      CompactDirectedGraph.Builder builder = new CompactDirectedGraph.Builder(header.undirected);
+
+      String[] ids = _readStrings(buffer, header.numVertices);
+      for(String id : ids) {
+        builder.addVertex(id);
+      }
+
+      int[] targets = new int[0];
+      for(int v = 0; v < ids.length; v++) {
+        targets = _readAdjacency(buffer, header, v, targets);
+        int degree = targets[0];
+        for(int i = 1; i <= degree; i++) {
+          builder.addEdge(v, targets[i]);
+        }
+      }
+
+      return builder.build();
+    }
+    catch(BufferUnderflowException e) {
+      throw new CazgraphException("Binary graph file is truncated: " + path, e);
+    }
+  }
+
+
+  /** Binary graphs can't be read from text. */
+  public GraphSprite loadFromReader(Reader reader, long sizeHint) throws IOException {
+    throw new CazgraphException("Binary graphs must be loaded from a file or a ByteBuffer, not from text.");
+  }
+
+
+  /** Binary graphs can't be read from text. */
+  public GraphSprite unstringify(String str) {
+    throw new CazgraphException("Binary graphs must be loaded from a file or a ByteBuffer, not from text.");
+  }
+
+
+  /**
+   * Reads a whole file into a heap buffer. The file is decoded eagerly, so
+   * memory-mapping it would save nothing, and a mapping would keep the file
+   * locked on some platforms until it was garbage collected, which would
+   * stop the same file from being saved over.
+   */
+  private ByteBuffer _read(Path path) {
+    try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if(channel.size() > Integer.MAX_VALUE) {
+        throw new CazgraphException("Binary graph file is too large to read: " + path);
+      }
+
+      ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+      while(buffer.hasRemaining()) {
+        if(channel.read(buffer) < 0) {
+          break;
+        }
+      }
+      buffer.flip();
+      return buffer;
+    }
+    catch(IOException e) {
+      throw new CazgraphException("Could not read graph from file: " + path, e);
+    }
+  }
+
+
+  private Header _readHeader(ByteBuffer buffer) {
+    if(buffer.remaining() < 20 || buffer.getInt() != MAGIC) {
+      throw new CazgraphException("Not a CazGraphs binary graph.");
+    }
+    int version = buffer.getInt();
+    if(version != VERSION) {
+      throw new CazgraphException("Unsupported binary graph version: " + version);
+    }
+
+    Header header = new Header();
+    header.undirected = (buffer.getInt() & FLAG_UNDIRECTED) != 0;
+    header.numVertices = buffer.getInt();
+    header.numEdges = buffer.getInt();
+    if(header.numVertices < 0 || header.numEdges < 0) {
+      throw new CazgraphException("Binary graph data is corrupt.");
+    }
+    return header;
+  }
+
+
+  /** Reads count strings into an array, decoding them through one scratch array. */
+  private String[] _readStrings(ByteBuffer buffer, int count) {
+    String[] result = new String[count];
+    byte[] scratch = new byte[64];
+    for(int i = 0; i < count; i++) {
+      int length = _readVarint(buffer);
+      if(length > scratch.length) {
+        scratch = new byte[Math.max(length, scratch.length*2)];
+      }
+      buffer.get(scratch, 0, length);
+      result[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+    return result;
+  }
+
+
+  private String _readString(ByteBuffer buffer) {
+    int length = _readVarint(buffer);
+    if(length == 0) {
+      return "";
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+
+  /**
+   * Reads the adjacency list of vertex v. The count of targets is stored
+   * at index 0 of the returned array, followed by the targets.
+   * @param targets   An array to reuse if it is large enough.
+   */
+  private int[] _readAdjacency(ByteBuffer buffer, Header header, int v, int[] targets) {
+    int degree = _readVarint(buffer);
+    if(degree > header.numVertices) {
+      throw new CazgraphException("Binary graph data is corrupt: vertex " + v + " has " + degree + " edges.");
+    }
+    if(degree + 1 > targets.length) {
+      targets = new int[Math.max(degree + 1, targets.length*2)];
+    }
+
+    targets[0] = degree;
+    int target = 0;
+    for(int i = 1; i <= degree; i++) {
+      target += _readVarint(buffer);
+      if(target < 0 || target >= header.numVertices) {
+        throw new CazgraphException("Binary graph data is corrupt: vertex " + v + " has an edge to index " + target + ".");
+      }
+      targets[i] = target;
+    }
+    return targets;
+  }
+
+
+  private static int _readVarint(ByteBuffer buffer) {
+    int result = 0;
+    for(int shift = 0; shift < 35; shift += 7) {
+      byte b = buffer.get();
+      result |= (b & 0x7F) << shift;
+      if(b >= 0) {
+        return result;
+      }
+    }
+    throw new CazgraphException("Binary graph data is corrupt: varint is too long.");
+  }
+
+
+
+  //////// Saving
+
+  /** Saves a graph to a binary graph file. */
+  public void saveToPath(GraphSprite graph, Path path) {
+    saveGraph(graph.getGraph(), path);
+  }
+
+
+  /** Saves the model of a graph to a binary graph file. */
+  public void saveGraph(DirectedGraph graph, Path path) {
+    try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      write(graph, channel);
+    }
+    catch(IOException e) {
+      throw new CazgraphException("Could not save graph to file: " + path, e);
+    }
+  }
+
+
+  /** Writes the model of a graph in the binary format to a channel. The channel is not closed. */
+  public void write(DirectedGraph graph, WritableByteChannel channel) throws IOException {
+    boolean undirected = (graph instanceof UndirectedGraph);
+
+    List<String> ids = new ArrayList<>(graph.getVertexIDs());
+    Collections.sort(ids);
+    Map<String, Integer> indices = new HashMap<>(ids.size()*2);
+    for(int v = 0; v < ids.size(); v++) {
+      indices.put(ids.get(v), v);
+    }
+
+    // Collect each vertex's sorted target indices up front, since the
+    // header needs the total count.
+    int[][] adjacency = new int[ids.size()][];
+    int numEdges = 0;
+    for(int v = 0; v < ids.size(); v++) {
+      adjacency[v] = _getTargets(graph, ids.get(v), v, indices, undirected);
+      numEdges += adjacency[v].length;
+    }
+
+    ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+    out.putInt(MAGIC);
+    out.putInt(VERSION);
+    out.putInt(undirected ? FLAG_UNDIRECTED : 0);
+    out.putInt(ids.size());
+    out.putInt(numEdges);
+
+    for(String id : ids) {
+      _writeString(out, channel, id);
+    }
+
+    for(int[] targets : adjacency) {
+      _writeVarint(out, channel, targets.length);
+      int prev = 0;
+      for(int target : targets) {
+        _writeVarint(out, channel, target - prev);
+        prev = target;
+      }
+    }
+
+    TreeSet<String> attrNames = new TreeSet<>();
+    for(String id : ids) {
+      attrNames.addAll(graph.getVertexAttributeNames(id));
+    }
+    _writeVarint(out, channel, attrNames.size());
+    for(String attrName : attrNames) {
+      _writeString(out, channel, attrName);
+      for(String id : ids) {
+        _writeString(out, channel, graph.getVertexAttribute(id, attrName));
+      }
+    }
+
+    _flush(out, channel);
+  }
+
+
+  /**
+   * Returns the sorted indices of a vertex's edge targets. For undirected
+   * graphs, only targets at or after the vertex's own index are included.
+   */
+  private int[] _getTargets(DirectedGraph graph, String id, int v, Map<String, Integer> indices, boolean undirected) {
+    int[] targets = new int[graph.getEdges(id).size()];
+    int count = 0;
+    for(String toID : graph.getEdges(id)) {
+      int target = indices.get(toID);
+      if(!undirected || target >= v) {
+        targets[count++] = target;
+      }
+    }
+    targets = Arrays.copyOf(targets, count);
+    Arrays.sort(targets);
+    return targets;
+  }
+
+
+  /** Binary graphs have no text representation. */
+  public void write(GraphSprite graph, Appendable out) throws IOException {
+    throw new CazgraphException("Binary graphs must be saved to a file or a channel, not to text.");
+  }
+
+
+  private void _writeString(ByteBuffer out, WritableByteChannel channel, String str) throws IOException {
+    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+    _writeVarint(out, channel, bytes.length);
+
+    int offset = 0;
+    while(offset < bytes.length) {
+      if(!out.hasRemaining()) {
+        _flush(out, channel);
+      }
+      int count = Math.min(out.remaining(), bytes.length - offset);
+      out.put(bytes, offset, count);
+      offset += count;
+    }
+  }
+
+
+  private void _writeVarint(ByteBuffer out, WritableByteChannel channel, int value) throws IOException {
+    if(out.remaining() < 5) {
+      _flush(out, channel);
+    }
+    while((value & ~0x7F) != 0) {
+      out.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.put((byte) value);
+  }
+
+
+  /** Writes the buffer's contents to the channel and clears it. */
+  private void _flush(ByteBuffer out, WritableByteChannel channel) throws IOException {
+    out.flip();
+    while(out.hasRemaining()) {
+      channel.write(out);
+    }
+    out.clear();
+  }
+
+
+
+  /** The fixed-size fields at the start of a binary graph. */
+  private static class Header {
+    boolean undirected;
+    int numVertices;
+    int numEdges;
+  }
+}
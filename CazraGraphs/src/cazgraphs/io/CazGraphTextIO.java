@@ -3,6 +3,9 @@ package cazgraphs.io;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -10,6 +13,7 @@ import java.util.List;
 import cazgraphs.CazgraphException;
 import cazgraphs.Debug;
 import cazgraphs.graph.GraphSprite;
+import cazgraphs.graph.model.DirectedGraph;
 
 /** 
  * This class provides utilities for reading and writing graphs in the simple 
@@ -54,34 +58,55 @@ public class CazGraphTextIO extends GraphIO {
   
   /** Reads a graph sprite from a string in the CazGraph text format. */
   public GraphSprite unstringify(String str) {
-    GraphSprite graph = new GraphSprite();
-    String[] sections = str.split("--");
-      
-    // vertices
-    Debug.debugln("vertices: ");
-    String[] vertices = sections[1].split("\n");
-    for(String vertex : vertices) {
-      Debug.debugln(vertex);
-      if(!vertex.equals("")) {
-        graph.addVertex(vertex.trim());
-      }
+    try {
+      return loadFromReader(new StringReader(str));
     }
+    catch(IOException e) {
+      throw new CazgraphException("Could not read graph.", e);
+    }
+  }
+  
+  
+  /** Reads a graph sprite in the CazGraph text format. */
+  public GraphSprite loadFromReader(Reader reader, long sizeHint) throws IOException {
+    return new GraphSprite(loadGraphFromReader(reader, sizeHint));
+  }
+  
+  
+  /** 
+   * Reads the model of a graph in the CazGraph text format one line at a 
+   * time, without keeping the whole text in memory.
+   */
+  public DirectedGraph loadGraphFromReader(Reader reader, long sizeHint) throws IOException {
+    DirectedGraph graph = new DirectedGraph();
+    BufferedReader br = (reader instanceof BufferedReader) ? (BufferedReader) reader : new BufferedReader(reader);
     
-    // edges
-    Debug.debugln("edges: ");
-    String[] edges = sections[3].split("\n");
-    for(String edge : edges) {
-      Debug.debugln(edge);
-      if(!edge.equals("")) {
-        String[] ends = edge.split("->");
-        String source = ends[0].trim();
-        
-        if(!ends[1].trim().equals("")) {
-          String[] targets = ends[1].split(",");
-          for(String target : targets) {
-            target = target.trim();
-            graph.addEdge(source, target);
-          }
+    // The sections are: vertex comments, vertices, edge comments, edges.
+    int section = 0;
+    String line;
+    while((line = br.readLine()) != null) {
+      String trimmed = line.trim();
+      if(trimmed.equals("--")) {
+        section++;
+        if(section == 1) {
+          Debug.debugln("vertices: ");
+        }
+        else if(section == 3) {
+          Debug.debugln("edges: ");
+        }
+        continue;
+      }
+      
+      if(section == 1) {
+        Debug.debugln(line);
+        if(!trimmed.equals("")) {
+          graph.addVertex(trimmed, trimmed);
+        }
+      }
+      else if(section == 3) {
+        Debug.debugln(line);
+        if(!trimmed.equals("")) {
+          _addEdges(graph, trimmed);
         }
       }
     }
@@ -90,26 +115,52 @@ public class CazGraphTextIO extends GraphIO {
   }
   
   
+  /** Adds the edges from a line of the form [source] -> [target], [target], ... */
+  private void _addEdges(DirectedGraph graph, String line) {
+    int arrow = line.indexOf("->");
+    if(arrow < 0) {
+      throw new CazgraphException("Malformed edge line: " + line);
+    }
+    String source = line.substring(0, arrow).trim();
+    
+    int start = arrow + 2;
+    while(start <= line.length()) {
+      int comma = line.indexOf(',', start);
+      if(comma < 0) {
+        comma = line.length();
+      }
+      
+      String target = line.substring(start, comma).trim();
+      if(!target.equals("")) {
+        graph.addEdge(source, target);
+      }
+      start = comma + 1;
+    }
+  }
+  
   
   
   
-  /** Creates a String representation of a graph in CazGraph text format. */
-  public String stringify(GraphSprite graph) {
-    String result = "Vertices\n--\n";
+  
+  /** Writes a graph in CazGraph text format, with its vertices and edges sorted. */
+  public void write(GraphSprite graph, Appendable out) throws IOException {
+    out.append("Vertices\n--\n");
       
     List<String> sortedVertices = new ArrayList<>(graph.getVertexIDs());
     Collections.sort(sortedVertices);
     
     for(String name : sortedVertices) {
-      result += name + "\n";
+      out.append(name).append('\n');
     }
     
     
-    result += "--\nEdges\n--\n";
+    out.append("--\nEdges\n--\n");
+    List<String> sortedEdges = new ArrayList<>();
     for(String name : sortedVertices) {
-      result += name + " -> ";
+      out.append(name).append(" -> ");
       
-      List<String> sortedEdges = new ArrayList<>(graph.getEdges(name));
+      sortedEdges.clear();
+      sortedEdges.addAll(graph.getEdges(name));
       Collections.sort(sortedEdges);
       
       boolean first = true;
@@ -118,16 +169,13 @@ public class CazGraphTextIO extends GraphIO {
           first = false;
         }
         else {
-          result += ", ";
+          out.append(", ");
         }
-        result += toID;
+        out.append(toID);
       }
-      result += "\n";
+      out.append('\n');
     }
-    
-    return result;
   }
   
   
 }
-
@@ -1,8 +1,21 @@
 package cazgraphs.io;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -10,6 +23,7 @@ import java.util.List;
 import cazgraphs.CazgraphException;
 import cazgraphs.Debug;
 import cazgraphs.graph.GraphSprite;
+import cazgraphs.graph.model.DirectedGraph;
 
 
 /** Subclasses of this are able to save and load graphs in various text formats. */
@@ -22,23 +36,62 @@ public abstract class GraphIO {
   
   
   
+  /** The size of the buffers used to read and write graph files. */
+  private static final int BUFFER_SIZE = 1 << 16;
+  
+  
+  
   /** Reads a graph sprite from a file. */
   public GraphSprite loadFromFile(String filepath) {
-    GraphSprite graph = new GraphSprite();
-    try {
-      BufferedReader br = new BufferedReader(new FileReader(filepath));
-      String input = "";
-      String line = br.readLine();
-      while(line != null) {
-        input += line + "\n";
-        line = br.readLine();
-      }
-      
-      return unstringify(input);
-    }
-    catch(Exception e) {
-      throw new CazgraphException("Could not read graph from file: " + filepath, e);
+    return loadFromPath(Paths.get(filepath));
+  }
+  
+  
+  /** 
+   * Reads a graph sprite from a file. The file is read as UTF-8 text through 
+   * a buffered channel and passed to loadFromReader. Files that aren't valid 
+   * UTF-8, such as those saved in the platform's native charset by older 
+   * versions, are read again in that charset instead.
+   */
+  public GraphSprite loadFromPath(Path path) {
+    return _loadPath(path, this::loadFromReader);
+  }
+  
+  
+  /** Reads a graph sprite from a stream of text. The reader is not closed. */
+  public GraphSprite loadFromReader(Reader reader) throws IOException {
+    return loadFromReader(reader, -1);
+  }
+  
+  
+  /** 
+   * Reads a graph sprite from a stream of text. The reader is not closed. 
+   * The default implementation reads all of the text and passes it to 
+   * unstringify. Formats that can parse their input incrementally should 
+   * override this.
+   * @param reader      The text to read the graph from.
+   * @param sizeHint    The expected number of characters, or -1 if unknown.
+   */
+  public GraphSprite loadFromReader(Reader reader, long sizeHint) throws IOException {
+    return unstringify(readAll(reader, sizeHint));
+  }
+  
+  
+  /** 
+   * Reads all the remaining text from a reader into a String. The text is 
+   * copied out of a StringBuilder at the end, so this briefly holds two 
+   * copies of it. 
+   * @param sizeHint    The expected number of characters, or -1 if unknown.
+   */
+  public static String readAll(Reader reader, long sizeHint) throws IOException {
+    int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(16, sizeHint));
+    StringBuilder sb = new StringBuilder(capacity);
+    char[] buffer = new char[BUFFER_SIZE];
+    int count;
+    while((count = reader.read(buffer)) != -1) {
+      sb.append(buffer, 0, count);
     }
+    return sb.toString();
   }
   
   
@@ -48,20 +101,159 @@ public abstract class GraphIO {
   
   
   
+  //////// Model-only loading
+  
+  /** 
+   * Reads the model of a graph from a file, without creating any sprites or 
+   * font metrics for it. Wrap the result in a GraphSprite to display it.
+   */
+  public DirectedGraph loadGraphFromFile(String filepath) {
+    return loadGraphFromPath(Paths.get(filepath));
+  }
+  
+  
+  /** 
+   * Reads the model of a graph from a file, without creating any sprites or 
+   * font metrics for it. The file is read the same way as in loadFromPath.
+   */
+  public DirectedGraph loadGraphFromPath(Path path) {
+    return _loadPath(path, this::loadGraphFromReader);
+  }
+  
+  
+  /** Reads the model of a graph from a stream of text. The reader is not closed. */
+  public DirectedGraph loadGraphFromReader(Reader reader) throws IOException {
+    return loadGraphFromReader(reader, -1);
+  }
+  
+  
+  /** 
+   * Reads the model of a graph from a stream of text. The reader is not 
+   * closed. The default implementation loads a graph sprite and returns its 
+   * model, so formats that can build the model directly should override this.
+   * @param reader      The text to read the graph from.
+   * @param sizeHint    The expected number of characters, or -1 if unknown.
+   */
+  public DirectedGraph loadGraphFromReader(Reader reader, long sizeHint) throws IOException {
+    return loadFromReader(reader, sizeHint).getGraph();
+  }
+  
+  
+  /** Reads the model of a graph from a string representation of it. */
+  public DirectedGraph unstringifyGraph(String str) {
+    try {
+      return loadGraphFromReader(new StringReader(str), str.length());
+    }
+    catch(IOException e) {
+      throw new CazgraphException("Could not read graph.", e);
+    }
+  }
+  
+  
+  
   /** Saves the graph to a file. */
   public void saveToFile(GraphSprite graph, String filepath) {
-    try {
-      FileWriter fw = new FileWriter(filepath);
-      fw.write(stringify(graph));
-      fw.close();
+    saveToPath(graph, Paths.get(filepath));
+  }
+  
+  
+  /** 
+   * Saves the graph to a file. The text is streamed as UTF-8 to the file 
+   * through a buffered channel, without building it in memory first.
+   */
+  public void saveToPath(GraphSprite graph, Path path) {
+    try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE), BUFFER_SIZE)) {
+      write(graph, writer);
     }
     catch(Exception e) {
-      throw new CazgraphException("Could not save graph to file: " + filepath, e);
+      throw new CazgraphException("Could not save graph to file: " + path, e);
     }
   }
   
   
   
   /** Creates a String representation of a graph. */
-  public abstract String stringify(GraphSprite graph);
+  public String stringify(GraphSprite graph) {
+    StringBuilder sb = new StringBuilder();
+    try {
+      write(graph, sb);
+    }
+    catch(IOException e) {
+      // StringBuilder doesn't throw IOExceptions.
+      throw new CazgraphException("Could not write graph.", e);
+    }
+    return sb.toString();
+  }
+  
+  
+  /** Writes the text representation of a graph to out. */
+  public abstract void write(GraphSprite graph, Appendable out) throws IOException;
+  
+  
+  
+  //////// File decoding
+  
+  /** Something that loads a result from a stream of text, such as loadFromReader. */
+  private interface ReaderLoader<T> {
+    T load(Reader reader, long sizeHint) throws IOException;
+  }
+  
+  
+  /** 
+   * Loads a result from a file with loader, reading the file as UTF-8. If the 
+   * file isn't valid UTF-8, it is read again in the platform's native 
+   * charset, with any bytes that still can't be decoded replaced.
+   */
+  private <T> T _loadPath(Path path, ReaderLoader<T> loader) {
+    try {
+      try {
+        return _loadPath(path, StandardCharsets.UTF_8.newDecoder(), loader);
+      }
+      catch(Exception e) {
+        if(!_isCodingError(e)) {
+          throw e;
+        }
+      }
+      
+      CharsetDecoder decoder = _nativeCharset().newDecoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      return _loadPath(path, decoder, loader);
+    }
+    catch(Exception e) {
+      throw new CazgraphException("Could not read graph from file: " + path, e);
+    }
+  }
+  
+  
+  /** Loads a result from a file with loader, decoding the file with decoder. */
+  private <T> T _loadPath(Path path, CharsetDecoder decoder, ReaderLoader<T> loader) throws IOException {
+    try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        Reader reader = new BufferedReader(Channels.newReader(channel, decoder, BUFFER_SIZE), BUFFER_SIZE)) {
+      return loader.load(reader, channel.size());
+    }
+  }
+  
+  
+  /** Returns true iff an exception was caused by text that couldn't be decoded. */
+  private static boolean _isCodingError(Throwable e) {
+    for(Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if(cause instanceof CharacterCodingException) {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  
+  /** Returns the platform's native charset, which FileWriter used before files were saved as UTF-8. */
+  private static Charset _nativeCharset() {
+    try {
+      return Charset.forName(System.getProperty("native.encoding"));
+    }
+    catch(Exception e) {
+      return Charset.defaultCharset();
+    }
+  }
 }
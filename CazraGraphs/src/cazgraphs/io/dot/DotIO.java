@@ -1,13 +1,11 @@
 package cazgraphs.io.dot;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import cazgraphs.CazgraphException;
 import cazgraphs.Debug;
@@ -51,137 +49,169 @@ public class DotIO extends GraphIO {
   
   /** Reads a graph from DOT text representation. */
   public GraphSprite unstringify(String str) {
-    // canonize new lines.
-    str = str.replace("\r\n", "\n").replace("\r", "\n");
+    try {
+      return loadFromReader(new StringReader(str));
+    }
+    catch(IOException e) {
+      throw new CazgraphException("Could not read graph.", e);
+    }
+  }
+  
+  
+  /** Reads a graph from DOT text in a single pass, using a DotReader. */
+  public GraphSprite loadFromReader(Reader reader, long sizeHint) throws IOException {
+    return new DotReader(reader).read();
+  }
+  
+  
+  /** 
+   * Reads the model of a graph from DOT text in a single pass, using a 
+   * DotReader. Subgraphs become vertices, but their nesting isn't kept 
+   * because it is a property of the sprites.
+   */
+  public DirectedGraph loadGraphFromReader(Reader reader, long sizeHint) throws IOException {
+    return new DotReader(reader).readGraph();
+  }
+  
+  
+  /** 
+   * Parses DOT source into the DOT AST classes. This is much slower than 
+   * unstringify, but the AST can be inspected or stringified back into DOT. 
+   * If the graph could not be parsed, a CazgraphException is thrown.
+   */
+  public GraphAST parseAST(String str) {
     str = removeComments(str);
     Debug.debugln(str);
-    return parseGraph(str);
+    
+    ParseResult<GraphAST> result = GraphAST.parse(new StringSlice(str));
+    if(result.success()) {
+      GraphAST grAST = result.getAST();
+      Debug.debugln("Parse success. Stringified version of result: \n" + grAST.stringify());
+      return grAST;
+    }
+    else {
+      throw new CazgraphException("Could not parse graph: " + result.getMessage());
+    }
   }
   
   
   
-  /** Removes all comments from a DOT source string. */
+  /** 
+   * Removes all comments from a DOT source string and converts its line 
+   * endings to \n. This is done in a single pass that copies the source 
+   * once. The DotLexer used by unstringify skips comments on its own.
+   */
   private String removeComments(String str) {
+    StringBuilder result = new StringBuilder(str.length());
     boolean inDQ = false;
     boolean inSQ = false;
     
-    String result = str;
-    
-    for(int i = 0; i < result.length()-1; i++) {
-      char c = result.charAt(i);
+    int len = str.length();
+    int i = 0;
+    while(i < len) {
+      char c = str.charAt(i);
+      char next = (i+1 < len) ? str.charAt(i+1) : 0;
       
-      if(inDQ) {
-        if(c == '\"' && result.charAt(i-1) != '\\') {
-          inDQ = false;
+      // Canonize new lines.
+      if(c == '\r') {
+        c = '\n';
+        if(next == '\n') {
+          i++;
         }
+        next = (i+1 < len) ? str.charAt(i+1) : 0;
       }
-      else if(inSQ) {
-        if(c == '\'' && result.charAt(i-1) != '\\') {
+      
+      if(inDQ || inSQ) {
+        if(c == '\\' && i+1 < len) {
+          // Copy the escaped character as is.
+          result.append(c).append(next);
+          i += 2;
+          continue;
+        }
+        if((inDQ && c == '\"') || (inSQ && c == '\'')) {
+          inDQ = false;
           inSQ = false;
         }
       }
-      else {
       
-        // Line comment
-        if(c == '/' && result.charAt(i+1) == '/') {
-          int newLineIndex = result.indexOf("\n", i);
-          
-          result = result.substring(0, i) + result.substring(newLineIndex);
-          i--;
-        }
-        
-        // Block comment
-        else if(c == '/' && result.charAt(i+1) == '*') {
-          int endBlockIndex = result.indexOf("*/", i) + 2;
-          
-          result = result.substring(0, i) + result.substring(endBlockIndex);
-          i--;
-        }
-        
-        // Python comment
-        else if(c == '#' && (i == 0 || result.charAt(i-1) == '\n')) {
-          int newLineIndex = result.indexOf("\n", i);
-          
-          result = result.substring(0, i) + result.substring(newLineIndex+1); 
-          i--;
-        }
-        else if(c == '\"') {
-          inDQ = true;
-        }
-        else if(c == '\'') {
-          inSQ = true;
+      // Line comment: skip up to the new line.
+      else if(c == '/' && next == '/') {
+        i = _indexOfLineEnd(str, i);
+        continue;
+      }
+      
+      // Block comment: skip through the closing */.
+      else if(c == '/' && next == '*') {
+        int endBlockIndex = str.indexOf("*/", i+2);
+        i = (endBlockIndex < 0) ? len : endBlockIndex + 2;
+        continue;
+      }
+      
+      // Python comment: skip the line, including its new line.
+      else if(c == '#' && (result.length() == 0 || result.charAt(result.length()-1) == '\n')) {
+        i = _indexOfLineEnd(str, i);
+        if(i < len && str.charAt(i) == '\r' && i+1 < len && str.charAt(i+1) == '\n') {
+          i++;
         }
+        i++;
+        continue;
+      }
+      else if(c == '\"') {
+        inDQ = true;
       }
+      else if(c == '\'') {
+        inSQ = true;
+      }
+      
+      result.append(c);
+      i++;
     }
     
-    return result;
+    return result.toString();
   }
   
   
-  
-  /** 
-   * Parses a graph from the source string. If the graph could not be parsed, 
-   * a CazgraphException is thrown. 
-   */
-  private GraphSprite parseGraph(String str) {
-    ParseResult<GraphAST> result = GraphAST.parse(new StringSlice(str));
-    if(result.success()) {
-      GraphAST grAST = result.getAST();
-      Debug.debugln("Parse success. Stringified version of result: \n" + grAST.stringify());
-      return grAST.toGraph();
-    }
-    else {
-      throw new CazgraphException("Could not parse graph: " + result.getMessage());
+  /** Returns the index of the first \r or \n at or after from, or the length of str. */
+  private static int _indexOfLineEnd(String str, int from) {
+    for(int i = from; i < str.length(); i++) {
+      char c = str.charAt(i);
+      if(c == '\n' || c == '\r') {
+        return i;
+      }
     }
+    return str.length();
   }
   
   
   
-  
-  
-  
-  /** Creates a DOT text respresentation for a graph. */
-  public String stringify(GraphSprite graph) {
-    String result = "";
-    
+  /** 
+   * Writes a DOT text respresentation for a graph. Each edge of an 
+   * undirected graph is written once, from the endpoint whose ID comes 
+   * first alphabetically.
+   */
+  public void write(GraphSprite graph, Appendable out) throws IOException {
     boolean isDirected = !(graph.getGraph() instanceof UndirectedGraph);
     
     if(isDirected) {
-      result += "digraph ";
+      out.append("digraph ");
     }
     else {
-      result += "graph ";
+      out.append("graph ");
     }
-    result += "cazgraph {\n";
-    
-    
-    Set<String> usedUndirectedEdges = new HashSet<>();
+    out.append("cazgraph {\n");
     
+    String edgeOp = isDirected ? " -> " : " -- ";
     for(String id : graph.getVertexIDs()) {
-      
-      result += "\"" + id + "\";\n";
+      out.append('\"').append(id).append("\";\n");
       
       for(String edgeID : graph.getEdges(id)) {
-        if(isDirected) {
-          result += "\"" + id + "\"" + " -> " + "\"" + edgeID + "\";\n";
-        }
-        else {
-          String edge1 = "\"" + id + "\"" + " -> " + "\"" + edgeID + "\";\n";
-          String edge2 = "\"" + edgeID + "\"" + " -- " + "\"" + id + "\";\n";
-          
-          if(!usedUndirectedEdges.contains(edge1) && !usedUndirectedEdges.contains(edge2)) {
-            usedUndirectedEdges.add(edge1);
-            usedUndirectedEdges.add(edge2);
-            
-            result += edge1;
-          }
+        if(isDirected || id.compareTo(edgeID) <= 0) {
+          out.append('\"').append(id).append('\"').append(edgeOp).append('\"').append(edgeID).append("\";\n");
         }
       }
     }
     
-    
-    result += "}";
-    return result;
+    out.append("}");
   }
   
   
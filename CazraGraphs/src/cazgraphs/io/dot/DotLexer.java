@@ -0,0 +1,358 @@
+package cazgraphs.io.dot;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import cazgraphs.CazgraphException;
+
+/**
+ * Splits DOT source read from a Reader into tokens, in a single pass over
+ * the characters. Whitespace and comments are skipped. IDs keep their
+ * source text, so quoted strings include their quotes and HTML strings
+ * include their angle brackets. See: http://www.graphviz.org/content/dot-language
+ */
+public class DotLexer {
+
+  /** The end of the input. */
+  public static final int EOF = 0;
+
+  /** An ID: a name, a numeral, a quoted string, or an HTML string. */
+  public static final int ID = 1;
+
+  /** An edge operator: -- or -> */
+  public static final int EDGEOP = 2;
+
+  public static final int LBRACE = 3;
+  public static final int RBRACE = 4;
+  public static final int LBRACKET = 5;
+  public static final int RBRACKET = 6;
+  public static final int EQUALS = 7;
+  public static final int SEMI = 8;
+  public static final int COMMA = 9;
+  public static final int COLON = 10;
+
+  private static final String[] NAMES = {"end of input", "ID", "edge operator", "{", "}", "[", "]", "=", ";", ",", ":"};
+
+
+  private Reader in;
+
+  private char[] buf = new char[1 << 14];
+  private int pos = 0;
+  private int limit = 0;
+
+  /** The current line number, for error messages. */
+  private int line = 1;
+
+  /** Whether only whitespace has been read since the start of the current line. */
+  private boolean atLineStart = true;
+
+  private StringBuilder text = new StringBuilder();
+
+  /** The token returned by the last call to next. */
+  private int kind = EOF;
+  private String value = null;
+
+  /** A token read ahead by peek, if hasPeeked is true. */
+  private boolean hasPeeked = false;
+  private int peekKind = EOF;
+  private String peekValue = null;
+
+
+  /** Creates a lexer reading DOT source from a Reader. */
+  public DotLexer(Reader in) {
+    this.in = in;
+  }
+
+
+  /** Returns the name of a kind of token, for error messages. */
+  public static String describe(int kind) {
+    return NAMES[kind];
+  }
+
+
+  /** Reads the next token and returns its kind. */
+  public int next() throws IOException {
+    if(hasPeeked) {
+      hasPeeked = false;
+      kind = peekKind;
+      value = peekValue;
+      return kind;
+    }
+    kind = _lex();
+    value = (kind == ID) ? text.toString() : null;
+    return kind;
+  }
+
+
+  /** Returns the kind of the next token without consuming it. */
+  public int peek() throws IOException {
+    if(!hasPeeked) {
+      int curKind = kind;
+      String curValue = value;
+
+      peekKind = _lex();
+      peekValue = (peekKind == ID) ? text.toString() : null;
+      hasPeeked = true;
+
+      kind = curKind;
+      value = curValue;
+    }
+    return peekKind;
+  }
+
+
+  /** Returns the text of the current token if it is an ID. Otherwise returns null. */
+  public String getText() {
+    return value;
+  }
+
+
+  /** Returns the line number the lexer has read up to. */
+  public int getLine() {
+    return line;
+  }
+
+
+  /** Returns a description of the current token, for error messages. */
+  public String describeCurrent() {
+    if(kind == ID) {
+      return value;
+    }
+    return describe(kind);
+  }
+
+
+
+  //////// Scanning
+
+  /** Scans the next token into text and returns its kind. */
+  private int _lex() throws IOException {
+    text.setLength(0);
+
+    while(true) {
+      int c = _read();
+      if(c < 0) {
+        return EOF;
+      }
+
+      if(c == '\n') {
+        line++;
+        atLineStart = true;
+        continue;
+      }
+      if(Character.isWhitespace(c)) {
+        continue;
+      }
+
+      // Lines starting with # are C preprocessor output, which DOT ignores.
+      if(c == '#' && atLineStart) {
+        _skipLine();
+        continue;
+      }
+      atLineStart = false;
+
+      if(c == '/' && _peekChar() == '/') {
+        _skipLine();
+        continue;
+      }
+      if(c == '/' && _peekChar() == '*') {
+        _read();
+        _skipBlockComment();
+        continue;
+      }
+
+      switch(c) {
+        case '{': return LBRACE;
+        case '}': return RBRACE;
+        case '[': return LBRACKET;
+        case ']': return RBRACKET;
+        case '=': return EQUALS;
+        case ';': return SEMI;
+        case ',': return COMMA;
+        case ':': return COLON;
+        case '"':
+          _scanQuoted();
+          return ID;
+        case '<':
+          _scanHTML();
+          return ID;
+        default:
+          break;
+      }
+
+      if(c == '-') {
+        int d = _peekChar();
+        if(d == '-' || d == '>') {
+          _read();
+          return EDGEOP;
+        }
+        if(d == '.' || _isDigit(d)) {
+          text.append('-');
+          _scanNumeral();
+          return ID;
+        }
+      }
+      else if(c == '.' || _isDigit(c)) {
+        _unread();
+        _scanNumeral();
+        return ID;
+      }
+      else if(_isNameStart(c)) {
+        text.append((char) c);
+        while(_isNamePart(_peekChar())) {
+          text.append((char) _read());
+        }
+        return ID;
+      }
+
+      throw new CazgraphException("DOT syntax error on line " + line + ": unexpected character '" + (char) c + "'.");
+    }
+  }
+
+
+  /** Scans the rest of a quoted string, keeping its quotes and escapes. */
+  private void _scanQuoted() throws IOException {
+    int startLine = line;
+    text.append('"');
+    while(true) {
+      int c = _read();
+      if(c < 0) {
+        throw new CazgraphException("DOT syntax error: string starting on line " + startLine + " is missing its closing \".");
+      }
+      if(c == '\n') {
+        line++;
+      }
+      text.append((char) c);
+
+      if(c == '\\') {
+        int d = _read();
+        if(d >= 0) {
+          if(d == '\n') {
+            line++;
+          }
+          text.append((char) d);
+        }
+      }
+      else if(c == '"') {
+        return;
+      }
+    }
+  }
+
+
+  /** Scans the rest of an HTML string, keeping its balanced angle brackets. */
+  private void _scanHTML() throws IOException {
+    int startLine = line;
+    int depth = 1;
+    text.append('<');
+    while(depth > 0) {
+      int c = _read();
+      if(c < 0) {
+        throw new CazgraphException("DOT syntax error: HTML string starting on line " + startLine + " is missing its closing >.");
+      }
+      if(c == '\n') {
+        line++;
+      }
+      else if(c == '<') {
+        depth++;
+      }
+      else if(c == '>') {
+        depth--;
+      }
+      text.append((char) c);
+    }
+  }
+
+
+  /** Scans a numeral of the form [-]?(.[0-9]+|[0-9]+(.[0-9]*)?), whose sign is already in text. */
+  private void _scanNumeral() throws IOException {
+    while(_isDigit(_peekChar())) {
+      text.append((char) _read());
+    }
+    if(_peekChar() == '.') {
+      text.append((char) _read());
+      while(_isDigit(_peekChar())) {
+        text.append((char) _read());
+      }
+    }
+  }
+
+
+  private void _skipLine() throws IOException {
+    int c = _peekChar();
+    while(c >= 0 && c != '\n') {
+      _read();
+      c = _peekChar();
+    }
+  }
+
+
+  private void _skipBlockComment() throws IOException {
+    int startLine = line;
+    int prev = 0;
+    while(true) {
+      int c = _read();
+      if(c < 0) {
+        throw new CazgraphException("DOT syntax error: comment starting on line " + startLine + " is missing its closing */.");
+      }
+      if(c == '\n') {
+        line++;
+      }
+      else if(c == '/' && prev == '*') {
+        return;
+      }
+      prev = c;
+    }
+  }
+
+
+  private static boolean _isDigit(int c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean _isNameStart(int c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c >= 0x80;
+  }
+
+  private static boolean _isNamePart(int c) {
+    return _isNameStart(c) || _isDigit(c);
+  }
+
+
+
+  //////// Buffered input
+
+  private int _read() throws IOException {
+    if(pos == limit && !_fill()) {
+      return -1;
+    }
+    return buf[pos++];
+  }
+
+  private int _peekChar() throws IOException {
+    if(pos == limit && !_fill()) {
+      return -1;
+    }
+    return buf[pos];
+  }
+
+  /** Steps back one character. Only valid right after a successful _read. */
+  private void _unread() {
+    pos--;
+  }
+
+  /** Reads more characters into the buffer. Returns false at the end of the input. */
+  private boolean _fill() throws IOException {
+    int count = in.read(buf, 0, buf.length);
+    while(count == 0) {
+      count = in.read(buf, 0, buf.length);
+    }
+    if(count < 0) {
+      pos = limit = 0;
+      return false;
+    }
+    pos = 0;
+    limit = count;
+    return true;
+  }
+}
@@ -0,0 +1,325 @@
+package cazgraphs.io.dot;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import cazgraphs.CazgraphException;
+import cazgraphs.graph.GraphSprite;
+import cazgraphs.graph.model.DirectedGraph;
+import cazgraphs.graph.model.UndirectedGraph;
+
+/**
+ * Reads a graph from DOT source in a single pass over its tokens, without
+ * building an AST. The graph's model is built first, and sprites are only
+ * created for it if it is read as a GraphSprite. Nested subgraphs are tracked with an explicit stack
+ * instead of recursion, so deeply nested or very long sources don't
+ * overflow the call stack.
+ * The resulting graph is the same as the one built from the DOT AST
+ * classes: each subgraph becomes a vertex, and the vertices inside it are
+ * nested under it. Attributes are parsed but not used.
+ */
+public class DotReader {
+
+  /** Parser states within a graph or subgraph body. */
+  private static final int STATEMENT = 0;
+  private static final int AFTER_VERTEX = 1;
+  private static final int AFTER_EDGEOP = 2;
+
+
+  private DotLexer lexer;
+
+  /** Pairs of (subgraph ID, vertex ID) for vertices nested under top-level subgraphs. */
+  private List<String> nesting = new ArrayList<>();
+
+
+  /** Creates a reader for DOT source. */
+  public DotReader(Reader reader) {
+    this.lexer = new DotLexer(reader);
+  }
+
+
+  /**
+   * Reads the graph as a GraphSprite, with the vertices in each top-level
+   * subgraph nested under the subgraph's vertex.
+   * @throws CazgraphException if the source isn't valid DOT.
+   */
+  public GraphSprite read() throws IOException {
+    GraphSprite graph = new GraphSprite(readGraph());
+    for(int i = 0; i < nesting.size(); i += 2) {
+      graph.getSprite(nesting.get(i)).addChild(graph.getSprite(nesting.get(i+1)));
+    }
+    return graph;
+  }
+
+
+  /**
+   * Reads the graph's model, without creating any sprites for it.
+   * @throws CazgraphException if the source isn't valid DOT.
+   */
+  public DirectedGraph readGraph() throws IOException {
+    // Declaration: [strict] (graph | digraph) [ID] {
+    int tok = lexer.next();
+    if(tok == DotLexer.ID && lexer.getText().equalsIgnoreCase("strict")) {
+      tok = lexer.next();
+    }
+    if(tok != DotLexer.ID || !(_isKeyword("graph") || _isKeyword("digraph"))) {
+      throw _error("graph or digraph");
+    }
+    boolean isDigraph = _isKeyword("digraph");
+    tok = lexer.next();
+    if(tok == DotLexer.ID) {
+      tok = lexer.next();
+    }
+    if(tok != DotLexer.LBRACE) {
+      throw _error("{");
+    }
+
+    DirectedGraph graph;
+    if(isDigraph) {
+      graph = new DirectedGraph();
+    }
+    else {
+      graph = new UndirectedGraph();
+    }
+
+    Deque<Scope> scopes = new ArrayDeque<>();
+    scopes.push(new Scope(null, graph));
+
+    while(!scopes.isEmpty()) {
+      Scope scope = scopes.peek();
+
+      if(scope.state == STATEMENT) {
+        tok = lexer.next();
+        if(tok == DotLexer.SEMI) {
+          continue;
+        }
+        else if(tok == DotLexer.RBRACE) {
+          scopes.pop();
+          if(!scopes.isEmpty()) {
+            _closeSubgraph(scope, scopes.peek());
+          }
+        }
+        else if(tok == DotLexer.LBRACE || (tok == DotLexer.ID && _isKeyword("subgraph"))) {
+          scopes.push(_openSubgraph(tok));
+        }
+        else if(tok == DotLexer.ID && (_isKeyword("graph") || _isKeyword("node") || _isKeyword("edge")) && lexer.peek() == DotLexer.LBRACKET) {
+          // attr_stmt
+          _skipAttributes();
+        }
+        else if(tok == DotLexer.ID && lexer.peek() == DotLexer.EQUALS) {
+          // ID = ID
+          lexer.next();
+          _expect(DotLexer.ID);
+        }
+        else if(tok == DotLexer.ID) {
+          _vertex(scope, _nodeID());
+        }
+        else {
+          throw _error("a statement");
+        }
+      }
+      else if(scope.state == AFTER_VERTEX) {
+        tok = lexer.peek();
+        if(tok == DotLexer.EDGEOP) {
+          lexer.next();
+          scope.state = AFTER_EDGEOP;
+        }
+        else {
+          if(tok == DotLexer.LBRACKET) {
+            _skipAttributes();
+          }
+          scope.chainFrom = null;
+          scope.state = STATEMENT;
+        }
+      }
+      else {
+        tok = lexer.next();
+        if(tok == DotLexer.LBRACE || (tok == DotLexer.ID && _isKeyword("subgraph"))) {
+          scopes.push(_openSubgraph(tok));
+        }
+        else if(tok == DotLexer.ID) {
+          _vertex(scope, _nodeID());
+        }
+        else {
+          throw _error("a vertex after the edge operator");
+        }
+      }
+    }
+
+    return graph;
+  }
+
+
+
+  //////// Statements
+
+  /**
+   * Handles a vertex in a statement: a node ID, or a subgraph that was just
+   * closed. If it follows an edge operator, the edge from the previous
+   * vertex in the chain is added.
+   */
+  private void _vertex(Scope scope, String id) {
+    scope.addVertex(id);
+    if(scope.state == AFTER_EDGEOP) {
+      scope.addEdge(scope.chainFrom, id);
+    }
+    scope.chainFrom = id;
+    scope.state = AFTER_VERTEX;
+  }
+
+
+  /** Reads the rest of a node ID with its optional port, and returns the ID. */
+  private String _nodeID() throws IOException {
+    String id = lexer.getText();
+    if(lexer.peek() == DotLexer.COLON) {
+      lexer.next();
+      _expect(DotLexer.ID);
+      if(lexer.peek() == DotLexer.COLON) {
+        lexer.next();
+        _expect(DotLexer.ID);
+      }
+    }
+    return id;
+  }
+
+
+  /** Reads a subgraph's declaration up to and including its {, and returns its scope. */
+  private Scope _openSubgraph(int tok) throws IOException {
+    String id = null;
+    if(tok == DotLexer.ID) {
+      tok = lexer.next();
+      if(tok == DotLexer.ID) {
+        id = lexer.getText();
+        tok = lexer.next();
+      }
+      if(tok != DotLexer.LBRACE) {
+        throw _error("{");
+      }
+    }
+    if(id == null) {
+      id = DotIO.makeAnonID();
+    }
+    return new Scope(id, null);
+  }
+
+
+  /**
+   * Adds a closed subgraph to its parent as a vertex. Its vertices and edges
+   * are copied into the parent. If the parent is the top-level graph, the
+   * subgraph's vertices are recorded as nested under the subgraph's vertex.
+   */
+  private void _closeSubgraph(Scope sub, Scope parent) {
+    parent.addVertex(sub.id);
+    for(String id : sub.vertices) {
+      parent.addVertex(id);
+      if(parent.graph != null && !id.equals(sub.id)) {
+        nesting.add(sub.id);
+        nesting.add(id);
+      }
+    }
+    for(int i = 0; i < sub.edges.size(); i += 2) {
+      parent.addEdge(sub.edges.get(i), sub.edges.get(i+1));
+    }
+
+    // The subgraph may be part of an edge statement.
+    _vertex(parent, sub.id);
+  }
+
+
+  /** Skips one or more attribute lists: [ID = ID, ...] [ ... ] */
+  private void _skipAttributes() throws IOException {
+    while(lexer.peek() == DotLexer.LBRACKET) {
+      lexer.next();
+      int tok = lexer.next();
+      while(tok != DotLexer.RBRACKET) {
+        if(tok != DotLexer.ID) {
+          throw _error("an attribute name");
+        }
+        _expect(DotLexer.EQUALS);
+        _expect(DotLexer.ID);
+
+        tok = lexer.next();
+        if(tok == DotLexer.SEMI || tok == DotLexer.COMMA) {
+          tok = lexer.next();
+        }
+      }
+    }
+  }
+
+
+
+  //////// Tokens
+
+  private boolean _isKeyword(String keyword) {
+    return lexer.getText().equalsIgnoreCase(keyword);
+  }
+
+
+  private void _expect(int kind) throws IOException {
+    if(lexer.next() != kind) {
+      throw _error(DotLexer.describe(kind));
+    }
+  }
+
+
+  private CazgraphException _error(String expected) {
+    return new CazgraphException("DOT syntax error on line " + lexer.getLine() + ": expected " + expected + " but found " + lexer.describeCurrent() + ".");
+  }
+
+
+
+  /**
+   * The graph or subgraph currently being read. The top-level graph adds
+   * its vertices and edges directly to the graph's model. A subgraph collects
+   * them until it is closed.
+   */
+  private static class Scope {
+
+    /** The subgraph's ID, or null for the top-level graph. */
+    String id;
+
+    /** The graph being built, for the top-level graph only. */
+    DirectedGraph graph;
+
+    /** The vertices in a subgraph. */
+    Set<String> vertices = new LinkedHashSet<>();
+
+    /** The edges in a subgraph, as consecutive pairs of vertex IDs. */
+    List<String> edges = new ArrayList<>();
+
+    int state = STATEMENT;
+
+    /** The previous vertex in the current edge statement, or null. */
+    String chainFrom = null;
+
+    Scope(String id, DirectedGraph graph) {
+      this.id = id;
+      this.graph = graph;
+    }
+
+    void addVertex(String vertexID) {
+      if(graph == null) {
+        vertices.add(vertexID);
+      }
+      else if(!graph.hasVertex(vertexID)) {
+        graph.addVertex(vertexID, vertexID);
+      }
+    }
+
+    void addEdge(String from, String to) {
+      if(graph == null) {
+        edges.add(from);
+        edges.add(to);
+      }
+      else {
+        graph.addEdge(from, to);
+      }
+    }
+  }
+}
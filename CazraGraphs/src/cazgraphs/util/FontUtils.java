@@ -6,29 +6,81 @@ import java.awt.FontMetrics;
 import java.awt.Graphics2D;
 import java.awt.Toolkit;
 import java.awt.geom.Dimension2D;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-/** Does text rendering calculations for a given font. */
+/** 
+ * Does text rendering calculations for a given font. 
+ * FontMetrics are shared by all instances for the same font, and each 
+ * instance remembers the dimensions of the strings it measured most recently.
+ */
 public class FontUtils {
   
+  /** The maximum number of string dimensions each instance remembers. */
+  private static final int DIMENSIONS_CACHE_SIZE = 4096;
+  
+  /** The FontMetrics for each font that has been used. */
+  private static Map<Font, FontMetrics> metricsCache = new ConcurrentHashMap<>();
+  
+  /** Shared instances, keyed by font and line spacing. */
+  private static Map<Font, Map<Integer, FontUtils>> instances = new ConcurrentHashMap<>();
+  
+  
   public Font font;
   
   private FontMetrics fm;
   
   public int lineSpacing;
   
+  /** The most recently measured string dimensions, in least-recently-used order. */
+  private Map<String, Dimension> dimensionsCache = new LinkedHashMap<String, Dimension>(16, 0.75f, true) {
+    protected boolean removeEldestEntry(Map.Entry<String, Dimension> eldest) {
+      return size() > DIMENSIONS_CACHE_SIZE;
+    }
+  };
+  
   public FontUtils(Font f, int lineSpace) {
     font = f;
-    fm = Toolkit.getDefaultToolkit().getFontMetrics(font);
+    fm = getFontMetrics(font);
     
     lineSpacing = lineSpace;
   }
   
   
+  /** Returns a shared instance for a font and line spacing. */
+  public static FontUtils getInstance(Font f, int lineSpace) {
+    Map<Integer, FontUtils> bySpacing = instances.computeIfAbsent(f, key -> new ConcurrentHashMap<>());
+    return bySpacing.computeIfAbsent(lineSpace, key -> new FontUtils(f, lineSpace));
+  }
+  
+  
+  /** Returns the FontMetrics for a font, which are only fetched from the Toolkit once per font. */
+  public static FontMetrics getFontMetrics(Font f) {
+    return metricsCache.computeIfAbsent(f, key -> Toolkit.getDefaultToolkit().getFontMetrics(key));
+  }
+  
+  
   /** 
    * Computes the bounding box for a String rendered with the font, assuming 
    * that the text's upper left corner is at the origin. 
    */
   public Dimension2D getStringDimensions(String str) {
+    Dimension dims;
+    synchronized(dimensionsCache) {
+      dims = dimensionsCache.get(str);
+    }
+    if(dims == null) {
+      dims = _measure(str);
+      synchronized(dimensionsCache) {
+        dimensionsCache.put(str, dims);
+      }
+    }
+    return new Dimension(dims);
+  }
+  
+  
+  private Dimension _measure(String str) {
     int lineHeight = fm.getHeight();
     
     int width = 0;
@@ -55,10 +107,9 @@ public class FontUtils {
     return new Dimension(width, height);
   }
   
-  /** Convenient static version of getStringDimensions. */
+  /** Convenient static version of getStringDimensions, using a shared instance. */
   public static Dimension2D getStringDimensions(String str, Font f, int spacing) {
-    FontUtils util = new FontUtils(f, spacing);
-    return util.getStringDimensions(str);
+    return getInstance(f, spacing).getStringDimensions(str);
   }
   
   
@@ -66,7 +117,7 @@ public class FontUtils {
   public static void drawString(Graphics2D g, String str, int lineSpace) {
     int height = 0;
     
-    FontMetrics fm = Toolkit.getDefaultToolkit().getFontMetrics(g.getFont());
+    FontMetrics fm = getFontMetrics(g.getFont());
     int lineHeight = fm.getHeight();
     
     String[] lines = str.split("\n");
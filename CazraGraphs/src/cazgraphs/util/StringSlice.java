@@ -9,6 +9,9 @@ import java.util.regex.Pattern;
 /** 
  * A section of a CharSequence defined by the original CharSequence and an 
  * index range [start, end). 
+ * A slice of a slice reads directly from the original root sequence, so 
+ * nesting slices doesn't add a layer of indirection to each access.
+ * The root sequence is assumed not to change while slices of it are in use.
  */
 public class StringSlice implements CharSequence {
   
@@ -18,6 +21,17 @@ public class StringSlice implements CharSequence {
   
   private int end;
   
+  /** The sequence at the bottom of any nested slices. This is never a StringSlice. */
+  private CharSequence root;
+  
+  /** The index in root where this slice starts. */
+  private int offset;
+  
+  /** The cached hash code, valid if hashed is true. */
+  private int hash;
+  
+  private boolean hashed = false;
+  
   /** 
    * Constructs a slice for a section of a source String formed from the 
    * range [start, end). 
@@ -37,6 +51,15 @@ public class StringSlice implements CharSequence {
       throw new ArrayIndexOutOfBoundsException("Slice start " + start + " cannot be > end " + end);
     }
     
+    if(src instanceof StringSlice) {
+      StringSlice parent = (StringSlice) src;
+      this.root = parent.root;
+      this.offset = parent.offset + start;
+    }
+    else {
+      this.root = src;
+      this.offset = start;
+    }
   }
   
   /** 
@@ -75,7 +98,7 @@ public class StringSlice implements CharSequence {
   /** Returns the char value at the specified index inside the slice. */
   @Override
   public char charAt(int index) {
-    return src.charAt(start + index);
+    return root.charAt(offset + index);
   }
   
   /** Returns the length of the slice. */
@@ -96,16 +119,40 @@ public class StringSlice implements CharSequence {
     if(length() == 0) {
       return "";
     }
+    else if(root instanceof String) {
+      return ((String) root).substring(offset, offset + length());
+    }
     else {
       char[] arr = new char[length()];
-      for(int i = 0; i < length(); i++) {
-        arr[i] = charAt(i);
-      }
+      getChars(0, length(), arr, 0);
       return new String(arr);
     }
   }
   
   
+  /** 
+   * Copies the chars in [srcBegin, srcEnd) of this slice into an array, 
+   * starting at dstBegin. 
+   */
+  public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+    if(srcBegin < 0 || srcEnd > length() || srcBegin > srcEnd) {
+      throw new IndexOutOfBoundsException("Range [" + srcBegin + ", " + srcEnd + ") is out of bounds for length " + length());
+    }
+    
+    if(root instanceof String) {
+      ((String) root).getChars(offset + srcBegin, offset + srcEnd, dst, dstBegin);
+    }
+    else if(root instanceof StringBuilder) {
+      ((StringBuilder) root).getChars(offset + srcBegin, offset + srcEnd, dst, dstBegin);
+    }
+    else {
+      for(int i = srcBegin; i < srcEnd; i++) {
+        dst[dstBegin++] = root.charAt(offset + i);
+      }
+    }
+  }
+  
+  
   
   /** Returns true iff the slice contains the specified sequence of char values. */
   public boolean contains(CharSequence s) {
@@ -127,17 +174,45 @@ public class StringSlice implements CharSequence {
    * If it could not be found, -1 is returned.
    */
   public int indexOf(CharSequence s, int fromIndex) {
-    int index = fromIndex;
-    while(this.length() - index >= s.length()) {
-      if(regionMatches(index, s, 0, s.length())) {
-        return index;
+    int len = s.length();
+    fromIndex = Math.max(0, fromIndex);
+    if(len == 0) {
+      return (fromIndex <= length()) ? fromIndex : -1;
+    }
+    
+    // String.indexOf is intrinsified, so let it search a String root directly.
+    int last = offset + length() - len;
+    if(root instanceof String && s instanceof String) {
+      int i = ((String) root).indexOf((String) s, offset + fromIndex);
+      return (i >= 0 && i <= last) ? i - offset : -1;
+    }
+    
+    // Otherwise, scan the root for the first char, and only compare the rest 
+    // of s at the positions where it appears.
+    char first = s.charAt(0);
+    for(int i = offset + fromIndex; i <= last; i++) {
+      if(root.charAt(i) == first && _matchesAt(i, s)) {
+        return i - offset;
       }
-      index++;
     }
     return -1;
   }
   
   
+  /** 
+   * Tests if s appears in the root at some index. The caller checks that s 
+   * fits there and that its first char matches. 
+   */
+  private boolean _matchesAt(int rootIndex, CharSequence s) {
+    for(int j = 1; j < s.length(); j++) {
+      if(root.charAt(rootIndex + j) != s.charAt(j)) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  
   /** 
    * Returns the index within this slice of the last occurence of the 
    * specified sequence of char values. If it could not be found, 
@@ -172,8 +247,11 @@ public class StringSlice implements CharSequence {
     if(toffset < 0 || ooffset < 0 || toffset + len > this.length() || ooffset + len > other.length()) {
       return false;
     }
+    if(!ignoreCase && root instanceof String && other instanceof String) {
+      return ((String) root).regionMatches(offset + toffset, (String) other, ooffset, len);
+    }
     for(int i=0; i < len; i++) {
-      int ct = this.charAt(toffset+i);
+      int ct = root.charAt(offset+toffset+i);
       int co = other.charAt(ooffset+i);
       
       if(ignoreCase) {
@@ -309,13 +387,15 @@ public class StringSlice implements CharSequence {
     else if(o instanceof CharSequence) {
       CharSequence other = (CharSequence) o;
       
-      if(this.length() == other.length()) {
-        for(int i = 0; i < this.length(); i++) {
-          if(this.charAt(i) != other.charAt(i)) {
-            return false;
-          }
+      if(other instanceof StringSlice) {
+        StringSlice slice = (StringSlice) other;
+        if(hashed && slice.hashed && hash != slice.hash) {
+          return false;
         }
-        return true;
+      }
+      
+      if(this.length() == other.length()) {
+        return regionMatches(0, other, 0, other.length());
       }
       else {
         return false;
@@ -330,18 +410,20 @@ public class StringSlice implements CharSequence {
   
   /** 
    * Returns the hash code for this slice. 
-   * This is computed the same way hashcodes are computed for Strings. 
+   * This is computed the same way hashcodes are computed for Strings, and 
+   * is cached after the first call.
    */
   @Override
   public int hashCode() {
-    int code = 0;
-    for(int i=0; i < length(); i++) {
-      int coeff = 1;
-      for(int j = 1; j < length()-i; j++) {
-        coeff*=31;
+    if(!hashed) {
+      int code = 0;
+      int last = offset + length();
+      for(int i = offset; i < last; i++) {
+        code = 31*code + root.charAt(i);
       }
-      code += charAt(i)*coeff;
+      hash = code;
+      hashed = true;
     }
-    return code;
+    return hash;
   }
 }